@@ -0,0 +1,99 @@
+/*
+ * Copyright (c) 2020 Jonah Seguin.  All rights reserved.  You may not modify, decompile, distribute or use any code/text contained in this document(plugin) without explicit signed permission from Jonah Seguin.
+ * www.jonahseguin.com
+ */
+
+package com.jonahseguin.payload.benchmark;
+
+import com.jonahseguin.payload.PayloadMode;
+import com.jonahseguin.payload.base.PayloadCache;
+import com.jonahseguin.payload.mode.profile.PayloadProfile;
+import com.jonahseguin.payload.mode.profile.PayloadProfileCache;
+import com.jonahseguin.payload.mode.profile.settings.ProfileCacheSettings;
+import com.jonahseguin.payload.mode.profile.store.ProfileStoreLocal;
+import sun.misc.Unsafe;
+
+import java.lang.reflect.Field;
+import java.util.Optional;
+import java.util.UUID;
+
+/**
+ * Caches and profiles for benchmarks, without a server, Guice or databases.
+ * Instances are allocated without running their constructors (which need the plugin), and only the fields that the
+ * benchmarked paths read are set.
+ */
+final class BenchmarkFixtures {
+
+    private static final Unsafe UNSAFE;
+
+    static {
+        try {
+            Field field = Unsafe.class.getDeclaredField("theUnsafe");
+            field.setAccessible(true);
+            UNSAFE = (Unsafe) field.get(null);
+        } catch (ReflectiveOperationException ex) {
+            throw new ExceptionInInitializerError(ex);
+        }
+    }
+
+    private BenchmarkFixtures() {
+    }
+
+    /**
+     * @return A standalone profile cache with default settings and an empty local store
+     */
+    @SuppressWarnings("unchecked")
+    static PayloadProfileCache<BenchmarkProfile> profileCache() {
+        PayloadProfileCache<BenchmarkProfile> cache = allocate(PayloadProfileCache.class);
+        set(cache, PayloadProfileCache.class, "settings", new ProfileCacheSettings());
+        set(cache, PayloadProfileCache.class, "localStore", new ProfileStoreLocal<>(cache));
+        set(cache, PayloadCache.class, "mode", PayloadMode.STANDALONE);
+        return cache;
+    }
+
+    /**
+     * @return A profile that can be put in a local store
+     */
+    static BenchmarkProfile profile(UUID uuid) {
+        BenchmarkProfile profile = allocate(BenchmarkProfile.class);
+        set(profile, PayloadProfile.class, "optional", Optional.of(profile));
+        profile.setUUID(uuid);
+        profile.setUsername("bench-" + uuid.toString().substring(0, 8));
+        return profile;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> T allocate(Class<?> type) {
+        try {
+            return (T) UNSAFE.allocateInstance(type);
+        } catch (InstantiationException ex) {
+            throw new IllegalStateException("Couldn't allocate " + type.getName(), ex);
+        }
+    }
+
+    private static void set(Object target, Class<?> owner, String name, Object value) {
+        try {
+            Field field = owner.getDeclaredField(name);
+            field.setAccessible(true);
+            field.set(target, value);
+        } catch (ReflectiveOperationException ex) {
+            throw new IllegalStateException("Couldn't set " + owner.getSimpleName() + "#" + name, ex);
+        }
+    }
+
+    static class BenchmarkProfile extends PayloadProfile {
+
+        private BenchmarkProfile() {
+            super(null); // never called, see allocate()
+        }
+
+        @Override
+        protected void init() {
+        }
+
+        @Override
+        protected void uninit() {
+        }
+    }
+
+}
@@ -0,0 +1,74 @@
+/*
+ * Copyright (c) 2020 Jonah Seguin.  All rights reserved.  You may not modify, decompile, distribute or use any code/text contained in this document(plugin) without explicit signed permission from Jonah Seguin.
+ * www.jonahseguin.com
+ */
+
+package com.jonahseguin.payload.benchmark;
+
+import com.jonahseguin.payload.mode.profile.PayloadProfileCache;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Local cache hits on a standalone profile cache: {@link PayloadProfileCache#get(UUID)},
+ * {@link PayloadProfileCache#getFromCache(UUID)} and {@link PayloadProfileCache#isCached(UUID)}.
+ * Run with {@code -prof gc}: a hit should allocate nothing ({@code gc.alloc.rate.norm} of ~0 B/op), see {@link LocalHitBudget}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class LocalHitBenchmark {
+
+    private static final int MASK = 1023; // UUIDs to cycle through, so the lookups aren't all the same key
+
+    @Param({"1000", "100000"})
+    public int cached;
+
+    private PayloadProfileCache<BenchmarkFixtures.BenchmarkProfile> cache;
+    private UUID[] uuids;
+
+    @State(Scope.Thread)
+    public static class Cursor {
+        int next = ThreadLocalRandom.current().nextInt();
+    }
+
+    @Setup
+    public void setup() {
+        cache = BenchmarkFixtures.profileCache();
+        uuids = new UUID[MASK + 1];
+        for (int i = 0; i < cached; i++) {
+            UUID uuid = UUID.randomUUID();
+            cache.getLocalStore().getLocalCache().put(uuid, BenchmarkFixtures.profile(uuid));
+            if (i <= MASK) {
+                uuids[i] = uuid;
+            }
+        }
+    }
+
+    private UUID next(Cursor cursor) {
+        return uuids[(cursor.next++ & MASK) % Math.min(cached, MASK + 1)];
+    }
+
+    @Benchmark
+    public Optional<BenchmarkFixtures.BenchmarkProfile> get(Cursor cursor) {
+        return cache.get(next(cursor));
+    }
+
+    @Benchmark
+    public Optional<BenchmarkFixtures.BenchmarkProfile> getFromCache(Cursor cursor) {
+        return cache.getFromCache(next(cursor));
+    }
+
+    @Benchmark
+    public boolean isCached(Cursor cursor) {
+        return cache.isCached(next(cursor));
+    }
+
+}
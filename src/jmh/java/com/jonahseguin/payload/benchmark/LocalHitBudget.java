@@ -0,0 +1,68 @@
+/*
+ * Copyright (c) 2020 Jonah Seguin.  All rights reserved.  You may not modify, decompile, distribute or use any code/text contained in this document(plugin) without explicit signed permission from Jonah Seguin.
+ * www.jonahseguin.com
+ */
+
+package com.jonahseguin.payload.benchmark;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.Result;
+import org.openjdk.jmh.results.RunResult;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Runs {@link LocalHitBenchmark} with the GC profiler and exits non-zero if any local hit allocates or is slower than
+ * the budget, so a regression of the hit path fails the run instead of going unnoticed.
+ * Budgets: {@code -Dpayload.bench.maxBytes} (bytes allocated per hit, default 0.5) and {@code -Dpayload.bench.maxNanos}
+ * (average time per hit, default 100).  Both are generous on purpose; tighten them for the hardware that runs this.
+ */
+public final class LocalHitBudget {
+
+    private static final String ALLOC_NORM = "gc.alloc.rate.norm";
+
+    private LocalHitBudget() {
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        double maxBytes = Double.parseDouble(System.getProperty("payload.bench.maxBytes", "0.5"));
+        double maxNanos = Double.parseDouble(System.getProperty("payload.bench.maxNanos", "100"));
+
+        Options options = new OptionsBuilder()
+                .include(LocalHitBenchmark.class.getSimpleName())
+                .addProfiler(GCProfiler.class)
+                .forks(1)
+                .build();
+        Collection<RunResult> results = new Runner(options).run();
+
+        List<String> failures = new ArrayList<>();
+        for (RunResult result : results) {
+            String name = result.getParams().getBenchmark() + " " + result.getParams().getParam("cached");
+            double nanos = result.getPrimaryResult().getScore();
+            if (nanos > maxNanos) {
+                failures.add(name + ": " + String.format("%.1f", nanos) + " ns/op > " + maxNanos);
+            }
+            for (Map.Entry<String, Result> secondary : result.getSecondaryResults().entrySet()) {
+                if (secondary.getKey().endsWith(ALLOC_NORM) && secondary.getValue().getScore() > maxBytes) {
+                    failures.add(name + ": " + String.format("%.2f", secondary.getValue().getScore()) + " B/op > " + maxBytes);
+                }
+            }
+        }
+
+        if (failures.isEmpty()) {
+            System.out.println("Local hits are within budget (" + maxBytes + " B/op, " + maxNanos + " ns/op)");
+            return;
+        }
+        System.err.println("Local hits over budget:");
+        failures.forEach(failure -> System.err.println("  " + failure));
+        System.exit(1);
+    }
+
+}
@@ -0,0 +1,103 @@
+/*
+ * Copyright (c) 2020 Jonah Seguin.  All rights reserved.  You may not modify, decompile, distribute or use any code/text contained in this document(plugin) without explicit signed permission from Jonah Seguin.
+ * www.jonahseguin.com
+ */
+
+package com.jonahseguin.payload.benchmark;
+
+import com.mongodb.event.CommandFailedEvent;
+import com.mongodb.event.CommandListener;
+import com.mongodb.event.CommandStartedEvent;
+import com.mongodb.event.CommandSucceededEvent;
+import dev.morphia.query.CountOptions;
+import dev.morphia.query.Query;
+import org.bson.BsonDocument;
+import org.bson.RawBsonDocument;
+import org.bson.codecs.BsonDocumentCodec;
+
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bytes sent to and received from MongoDB per call, for each of the operations in {@link MongoStoreBenchmark}, counted
+ * from the encoded command and reply documents seen by a {@link CommandListener}.
+ * Needs a MongoDB server, see {@link MongoFixtures}.  Calls per operation: {@code -Dpayload.bench.calls} (default 1000).
+ */
+public final class MongoBytesReport {
+
+    private static final AtomicLong sent = new AtomicLong();
+    private static final AtomicLong received = new AtomicLong();
+    private static final AtomicLong commands = new AtomicLong();
+
+    private MongoBytesReport() {
+    }
+
+    public static void main(String[] args) {
+        int calls = Integer.getInteger("payload.bench.calls", 1000);
+        MongoFixtures mongo = new MongoFixtures(new Counter());
+        try {
+            String[] uniqueIds = mongo.seed(1000).toArray(new String[0]);
+            MongoFixtures.Tracked tracked = mongo.new Tracked(MongoFixtures.document(UUID.randomUUID().toString()));
+
+            System.out.println(String.format("%-12s %10s %12s %10s", "operation", "commands", "sent B/op", "recv B/op"));
+            measure("getToList", calls, i -> query(mongo, uniqueIds[i % uniqueIds.length]).find().toList().stream().findFirst());
+            measure("getFirst", calls, i -> query(mongo, uniqueIds[i % uniqueIds.length]).first());
+            measure("hasToList", calls, i -> query(mongo, uniqueIds[i % uniqueIds.length]).find().toList().stream().findAny().isPresent());
+            measure("hasCount", calls, i -> query(mongo, uniqueIds[i % uniqueIds.length]).count(new CountOptions().limit(1)));
+            measure("saveFull", calls, i -> {
+                tracked.document.stats.merge("stat0", 1, Integer::sum);
+                tracked.saveFull();
+            });
+            measure("savePartial", calls, i -> {
+                tracked.document.stats.merge("stat0", 1, Integer::sum);
+                tracked.savePartial();
+            });
+        } finally {
+            mongo.close();
+        }
+    }
+
+    private static Query<MongoFixtures.BenchDocument> query(MongoFixtures mongo, String uniqueId) {
+        return mongo.datastore.createQuery(MongoFixtures.BenchDocument.class).field("uniqueId").equal(uniqueId);
+    }
+
+    private static void measure(String name, int calls, Call call) {
+        sent.set(0);
+        received.set(0);
+        commands.set(0);
+        for (int i = 0; i < calls; i++) {
+            call.run(i);
+        }
+        System.out.println(String.format("%-12s %10.1f %12.1f %10.1f", name,
+                commands.get() / (double) calls, sent.get() / (double) calls, received.get() / (double) calls));
+    }
+
+    private static long size(BsonDocument document) {
+        return new RawBsonDocument(document, new BsonDocumentCodec()).getByteBuffer().remaining();
+    }
+
+    @FunctionalInterface
+    private interface Call {
+        void run(int i);
+    }
+
+    private static class Counter implements CommandListener {
+
+        @Override
+        public void commandStarted(CommandStartedEvent event) {
+            commands.incrementAndGet();
+            sent.addAndGet(size(event.getCommand()));
+        }
+
+        @Override
+        public void commandSucceeded(CommandSucceededEvent event) {
+            received.addAndGet(size(event.getResponse()));
+        }
+
+        @Override
+        public void commandFailed(CommandFailedEvent event) {
+        }
+
+    }
+
+}
@@ -0,0 +1,160 @@
+/*
+ * Copyright (c) 2020 Jonah Seguin.  All rights reserved.  You may not modify, decompile, distribute or use any code/text contained in this document(plugin) without explicit signed permission from Jonah Seguin.
+ * www.jonahseguin.com
+ */
+
+package com.jonahseguin.payload.benchmark;
+
+import com.jonahseguin.payload.base.Cache;
+import com.jonahseguin.payload.base.store.PartialUpdater;
+import com.jonahseguin.payload.base.type.Payload;
+import com.mongodb.BasicDBObject;
+import com.mongodb.DBCollection;
+import com.mongodb.DBObject;
+import com.mongodb.MongoClient;
+import com.mongodb.MongoClientOptions;
+import com.mongodb.MongoClientURI;
+import com.mongodb.event.CommandListener;
+import dev.morphia.Datastore;
+import dev.morphia.Morphia;
+import dev.morphia.annotations.Entity;
+import dev.morphia.annotations.Id;
+import dev.morphia.annotations.Indexed;
+import org.bson.types.ObjectId;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * A MongoDB datastore for benchmarks, with profile-shaped documents.
+ * Connects to {@code -Dpayload.bench.mongo} (default mongodb://localhost:27017), database {@code payload_bench}, which is
+ * dropped first.
+ */
+final class MongoFixtures {
+
+    static final String DATABASE = "payload_bench";
+    static final int STATS = 64; // entries in each document's stats map
+    static final int HISTORY = 32; // entries in each document's history list
+
+    final MongoClient client;
+    final Morphia morphia;
+    final Datastore datastore;
+    final DBCollection collection;
+
+    MongoFixtures(CommandListener listener) {
+        MongoClientOptions.Builder options = MongoClientOptions.builder();
+        if (listener != null) {
+            options.addCommandListener(listener);
+        }
+        this.client = new MongoClient(new MongoClientURI(System.getProperty("payload.bench.mongo", "mongodb://localhost:27017"), options));
+        this.client.dropDatabase(DATABASE);
+        this.morphia = new Morphia();
+        this.morphia.map(BenchDocument.class);
+        this.datastore = morphia.createDatastore(client, DATABASE);
+        this.datastore.ensureIndexes();
+        this.collection = datastore.getCollection(BenchDocument.class);
+    }
+
+    /**
+     * Insert documents
+     * @param count How many
+     * @return Their uniqueIds, in insertion order
+     */
+    List<String> seed(int count) {
+        List<String> uniqueIds = new ArrayList<>(count);
+        List<BenchDocument> batch = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            BenchDocument document = document(UUID.randomUUID().toString());
+            uniqueIds.add(document.uniqueId);
+            batch.add(document);
+            if (batch.size() == 1000) {
+                datastore.save(batch);
+                batch.clear();
+            }
+        }
+        if (!batch.isEmpty()) {
+            datastore.save(batch);
+        }
+        return uniqueIds;
+    }
+
+    static BenchDocument document(String uniqueId) {
+        BenchDocument document = new BenchDocument();
+        document.uniqueId = uniqueId;
+        document.username = "bench-" + uniqueId.substring(0, 8);
+        for (int i = 0; i < STATS; i++) {
+            document.stats.put("stat" + i, i);
+        }
+        for (int i = 0; i < HISTORY; i++) {
+            document.history.add("joined hub-" + i + " at " + (1580000000000L + i));
+        }
+        return document;
+    }
+
+    /**
+     * A saved document and its snapshot, saved the ways {@link PartialUpdater} and a full save do
+     */
+    final class Tracked {
+
+        private byte[] snapshot;
+        private final PartialUpdater updater = new PartialUpdater(proxy(Cache.class, (proxy, method, args) -> null));
+        private final Payload<?> payload = proxy(Payload.class, (proxy, method, args) -> method.getName().equals("getSnapshot") ? snapshot : null);
+        final BenchDocument document;
+
+        Tracked(BenchDocument document) {
+            this.document = document;
+            datastore.save(document);
+            this.snapshot = PartialUpdater.snapshot(morphia.toDBObject(document));
+        }
+
+        /**
+         * What {@link PartialUpdater#save(Payload)} does: map, diff against the snapshot, write the $set / $unset
+         */
+        void savePartial() {
+            DBObject current = morphia.toDBObject(document);
+            DBObject update = updater.diff(payload, current);
+            if (update != null && !update.keySet().isEmpty()) {
+                collection.update(new BasicDBObject("_id", current.get("_id")), update);
+            }
+            snapshot = PartialUpdater.snapshot(current);
+        }
+
+        void saveFull() {
+            datastore.save(document);
+            snapshot = PartialUpdater.snapshot(morphia.toDBObject(document));
+        }
+
+    }
+
+    void close() {
+        client.dropDatabase(DATABASE);
+        client.close();
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> T proxy(Class<?> type, InvocationHandler handler) {
+        return (T) Proxy.newProxyInstance(MongoFixtures.class.getClassLoader(), new Class[]{type}, handler);
+    }
+
+    @Entity(value = "bench", noClassnameStored = true)
+    public static class BenchDocument {
+
+        @Id
+        ObjectId objectId = new ObjectId();
+        @Indexed
+        String uniqueId;
+        String username;
+        Map<String, Integer> stats = new LinkedHashMap<>();
+        List<String> history = new ArrayList<>();
+
+        public BenchDocument() {
+        }
+
+    }
+
+}
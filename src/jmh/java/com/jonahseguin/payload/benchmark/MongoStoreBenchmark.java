@@ -0,0 +1,91 @@
+/*
+ * Copyright (c) 2020 Jonah Seguin.  All rights reserved.  You may not modify, decompile, distribute or use any code/text contained in this document(plugin) without explicit signed permission from Jonah Seguin.
+ * www.jonahseguin.com
+ */
+
+package com.jonahseguin.payload.benchmark;
+
+import dev.morphia.query.CountOptions;
+import dev.morphia.query.Query;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The Mongo stores' reads and saves, the old way against the current way:
+ * <ul>
+ *     <li>get: {@code find().toList()} then the first result, against {@code first()}</li>
+ *     <li>has: mapping every match, against a count limited to one match</li>
+ *     <li>save after changing one field: a full save, against a partial $set / $unset update</li>
+ * </ul>
+ * Needs a MongoDB server, see {@link MongoFixtures}.  Bytes on the wire per call are reported by {@link MongoBytesReport}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MongoStoreBenchmark {
+
+    private static final int DOCUMENTS = 10000;
+
+    private MongoFixtures mongo;
+    private String[] uniqueIds;
+    private MongoFixtures.Tracked tracked;
+
+    @Setup
+    public void setup() {
+        mongo = new MongoFixtures(null);
+        List<String> seeded = mongo.seed(DOCUMENTS);
+        uniqueIds = seeded.toArray(new String[0]);
+        tracked = mongo.new Tracked(MongoFixtures.document(UUID.randomUUID().toString()));
+    }
+
+    @TearDown
+    public void tearDown() {
+        mongo.close();
+    }
+
+    private Query<MongoFixtures.BenchDocument> query() {
+        String uniqueId = uniqueIds[ThreadLocalRandom.current().nextInt(uniqueIds.length)];
+        return mongo.datastore.createQuery(MongoFixtures.BenchDocument.class).field("uniqueId").equal(uniqueId);
+    }
+
+    @Benchmark
+    public Optional<MongoFixtures.BenchDocument> getToList() {
+        return query().find().toList().stream().findFirst();
+    }
+
+    @Benchmark
+    public MongoFixtures.BenchDocument getFirst() {
+        return query().first();
+    }
+
+    @Benchmark
+    public boolean hasToList() {
+        return query().find().toList().stream().findAny().isPresent();
+    }
+
+    @Benchmark
+    public boolean hasCount() {
+        return query().count(new CountOptions().limit(1)) > 0;
+    }
+
+    @Benchmark
+    public void saveFull() {
+        tracked.document.stats.merge("stat0", 1, Integer::sum);
+        tracked.saveFull();
+    }
+
+    @Benchmark
+    public void savePartial() {
+        tracked.document.stats.merge("stat0", 1, Integer::sum);
+        tracked.savePartial();
+    }
+
+}
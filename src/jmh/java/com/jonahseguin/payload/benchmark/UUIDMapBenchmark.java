@@ -0,0 +1,103 @@
+/*
+ * Copyright (c) 2020 Jonah Seguin.  All rights reserved.  You may not modify, decompile, distribute or use any code/text contained in this document(plugin) without explicit signed permission from Jonah Seguin.
+ * www.jonahseguin.com
+ */
+
+package com.jonahseguin.payload.benchmark;
+
+import com.jonahseguin.payload.base.uuid.ConcurrentUUIDMap;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Get/put throughput of {@link ConcurrentUUIDMap} against the {@link ConcurrentHashMap} it replaced in profile local
+ * stores and controller registries, at the size of a large hub's local store.
+ * Lookups use equal but not identical UUIDs, as callers (players, packets) do.  Use {@code -t <threads>} for contention.
+ * Footprint is measured separately by {@link UUIDMapFootprint}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class UUIDMapBenchmark {
+
+    private static final int KEYS = 1 << 16; // lookup keys to cycle through
+    private static final Object VALUE = new Object();
+
+    @Param({"ConcurrentHashMap", "ConcurrentUUIDMap"})
+    public String impl;
+
+    @Param({"200000"})
+    public int size;
+
+    private ConcurrentMap<UUID, Object> map;
+    private UUID[] present;
+    private UUID[] absent;
+
+    @State(Scope.Thread)
+    public static class Cursor {
+        int next = ThreadLocalRandom.current().nextInt();
+    }
+
+    @Setup
+    public void setup() {
+        map = create(impl, size);
+        present = new UUID[KEYS];
+        absent = new UUID[KEYS];
+        for (int i = 0; i < size; i++) {
+            UUID uuid = UUID.randomUUID();
+            map.put(uuid, VALUE);
+            if (i < KEYS) {
+                present[i] = new UUID(uuid.getMostSignificantBits(), uuid.getLeastSignificantBits());
+            }
+        }
+        for (int i = 0; i < KEYS; i++) {
+            absent[i] = UUID.randomUUID();
+        }
+    }
+
+    static ConcurrentMap<UUID, Object> create(String impl, int size) {
+        switch (impl) {
+            case "ConcurrentHashMap":
+                return new ConcurrentHashMap<>();
+            case "ConcurrentUUIDMap":
+                return new ConcurrentUUIDMap<>();
+            default:
+                throw new IllegalArgumentException("Unknown map " + impl);
+        }
+    }
+
+    private UUID next(UUID[] keys, Cursor cursor) {
+        return keys[(cursor.next++ & (KEYS - 1)) % Math.min(size, KEYS)];
+    }
+
+    @Benchmark
+    public Object getHit(Cursor cursor) {
+        return map.get(next(present, cursor));
+    }
+
+    @Benchmark
+    public Object getMiss(Cursor cursor) {
+        return map.get(next(absent, cursor));
+    }
+
+    @Benchmark
+    public Object putReplace(Cursor cursor) {
+        return map.put(next(present, cursor), VALUE);
+    }
+
+    @Benchmark
+    public Object putRemove(Cursor cursor) {
+        UUID uuid = next(absent, cursor);
+        map.put(uuid, VALUE);
+        return map.remove(uuid);
+    }
+
+}
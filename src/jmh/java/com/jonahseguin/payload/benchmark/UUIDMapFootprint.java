@@ -0,0 +1,44 @@
+/*
+ * Copyright (c) 2020 Jonah Seguin.  All rights reserved.  You may not modify, decompile, distribute or use any code/text contained in this document(plugin) without explicit signed permission from Jonah Seguin.
+ * www.jonahseguin.com
+ */
+
+package com.jonahseguin.payload.benchmark;
+
+import com.jonahseguin.payload.base.uuid.ConcurrentUUIDMap;
+import org.openjdk.jol.info.ClassLayout;
+import org.openjdk.jol.info.GraphLayout;
+
+import java.util.UUID;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Retained heap per entry of {@link ConcurrentUUIDMap} and {@link java.util.concurrent.ConcurrentHashMap}, measured with JOL.
+ * Every entry shares one value, so only the map's own structure (tables, nodes, key objects) is counted.
+ * Also prints the field layout of a profile, the object each local store entry points to.
+ * Size: {@code -Dpayload.bench.size} (default 200000).
+ */
+public final class UUIDMapFootprint {
+
+    private UUIDMapFootprint() {
+    }
+
+    public static void main(String[] args) {
+        int size = Integer.getInteger("payload.bench.size", 200000);
+        Object value = new Object();
+
+        System.out.println(String.format("%-20s %12s %10s", "map", "bytes", "bytes/entry"));
+        for (String impl : new String[]{"ConcurrentHashMap", "ConcurrentUUIDMap"}) {
+            ConcurrentMap<UUID, Object> map = UUIDMapBenchmark.create(impl, size);
+            for (int i = 0; i < size; i++) {
+                map.put(UUID.randomUUID(), value);
+            }
+            long bytes = GraphLayout.parseInstance(map).totalSize() - GraphLayout.parseInstance(value).totalSize();
+            System.out.println(String.format("%-20s %12d %10.1f", impl, bytes, bytes / (double) size));
+        }
+
+        System.out.println();
+        System.out.println(ClassLayout.parseClass(BenchmarkFixtures.BenchmarkProfile.class).toPrintable());
+    }
+
+}
@@ -8,6 +8,7 @@ package com.jonahseguin.payload;
 import com.google.common.base.Preconditions;
 import com.jonahseguin.payload.base.Cache;
 import com.jonahseguin.payload.base.PayloadCache;
+import com.jonahseguin.payload.base.memory.MemoryGovernor;
 import com.jonahseguin.payload.base.type.Payload;
 import com.jonahseguin.payload.database.DatabaseModule;
 import com.jonahseguin.payload.database.PayloadDatabase;
@@ -30,6 +31,7 @@ public class PayloadAPI {
     private final ConcurrentMap<String, PayloadDatabase> databases = new ConcurrentHashMap<>();
     private final ConcurrentMap<String, ServerService> serverServices = new ConcurrentHashMap<>();
     private final Set<String> requested = new HashSet<>();
+    private final MemoryGovernor memoryGovernor = new MemoryGovernor(this);
 
     private List<Cache> _sortedCaches = null;
     private List<Cache> _sortedCachesReversed = null;
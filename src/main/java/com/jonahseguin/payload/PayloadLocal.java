@@ -30,6 +30,7 @@ public class PayloadLocal {
     private String payloadID = null;
     private boolean firstStartup = true;
     private boolean debug = true;
+    private int loginThreads = 8; // size of the executor for profile caches loaded alongside another during login (the first loads on the pre-login thread)
     private YamlConfiguration config;
     private File payloadFile;
 
@@ -109,6 +110,7 @@ public class PayloadLocal {
         }
 
         this.debug = config.getBoolean("debug", true);
+        this.loginThreads = Math.max(1, config.getInt("login-threads", 8));
 
         return true;
     }
@@ -9,6 +9,7 @@ import com.google.inject.Guice;
 import com.google.inject.Injector;
 import com.google.inject.Singleton;
 import com.google.inject.Stage;
+import com.jonahseguin.payload.base.util.PayloadClock;
 import com.jonahseguin.payload.base.PayloadPermission;
 import com.jonahseguin.payload.base.lang.PLangService;
 import com.jonahseguin.payload.command.PCommandHandler;
@@ -38,6 +39,7 @@ public class PayloadPlugin extends JavaPlugin {
     private final PayloadLocal local = new PayloadLocal(this);
     private PCommandHandler commandHandler;
     private PLangService lang;
+    private ProfileListener profileListener;
 
     /**
      * Format a string with arguments
@@ -78,6 +80,7 @@ public class PayloadPlugin extends JavaPlugin {
     @Override
     public void onEnable() {
         plugin = this;
+        PayloadClock.start();
 
         this.copyResources();
         if (!this.local.loadPayloadID()) {
@@ -94,8 +97,10 @@ public class PayloadPlugin extends JavaPlugin {
 
         commandHandler = new PCommandHandler(this, lang, injector);
 
-        this.getServer().getPluginManager().registerEvents(injector.getInstance(ProfileListener.class), this);
+        profileListener = injector.getInstance(ProfileListener.class);
+        this.getServer().getPluginManager().registerEvents(profileListener, this);
         this.getCommand("payload").setExecutor(this.commandHandler);
+        this.api.getMemoryGovernor().start();
         this.getLogger().info(PayloadPlugin.format("Payload v{0} by Jonah Seguin enabled.", getDescription().getVersion()));
     }
 
@@ -118,8 +123,13 @@ public class PayloadPlugin extends JavaPlugin {
 
     @Override
     public void onDisable() {
+        this.api.getMemoryGovernor().stop();
+        if (profileListener != null) {
+            profileListener.shutdown();
+        }
         lang.load();
         lang.save();
+        PayloadClock.stop();
         this.getLogger().info(PayloadPlugin.format("Payload v{0} by Jonah Seguin disabled.", getDescription().getVersion()));
         plugin = null;
     }
@@ -91,6 +91,8 @@ public interface Cache<K, X extends Payload<K>> extends Service, DatabaseDepende
 
     void setInstantiator(@Nonnull PayloadInstantiator<K, X> instantiator);
 
+    Class<X> getPayloadClass();
+
     String keyToString(@Nonnull K key);
 
     K keyFromString(@Nonnull String key);
@@ -120,6 +122,25 @@ public interface Cache<K, X extends Payload<K>> extends Service, DatabaseDepende
     @Nonnull
     PayloadController<X> controller(@Nonnull K key);
 
+    /**
+     * @return Number of controllers currently held by this cache
+     */
+    int controllerCount();
+
+    /**
+     * Discard controllers that are idle (called periodically by the cleanup task)
+     * @return Number of controllers discarded
+     */
+    int cleanupControllers();
+
+    /**
+     * Evict cached objects that can safely be dropped (saved, not in use by an online player), least recently used first,
+     * to relieve memory pressure
+     * @param max Maximum number of objects to evict
+     * @return Number of objects evicted
+     */
+    int evictForMemory(int max);
+
     DatabaseService getDatabase();
 
     X create();
@@ -16,6 +16,7 @@ import com.jonahseguin.payload.base.error.CacheErrorService;
 import com.jonahseguin.payload.base.error.ErrorService;
 import com.jonahseguin.payload.base.lang.PLangService;
 import com.jonahseguin.payload.base.task.PayloadAutoSaveTask;
+import com.jonahseguin.payload.base.task.PayloadCleanupTask;
 import com.jonahseguin.payload.base.type.Payload;
 import com.jonahseguin.payload.base.type.PayloadInstantiator;
 import com.jonahseguin.payload.base.update.PayloadUpdater;
@@ -42,6 +43,7 @@ import java.util.concurrent.Executors;
 public abstract class PayloadCache<K, X extends Payload<K>> implements Comparable<PayloadCache>, Cache<K, X> {
 
     protected final PayloadAutoSaveTask<K, X> autoSaveTask = new PayloadAutoSaveTask<>(this);
+    protected final PayloadCleanupTask<K, X> cleanupTask = new PayloadCleanupTask<>(this);
     protected final Set<String> dependingCaches = new HashSet<>();
     protected final Class<K> keyClass;
     protected final Class<X> payloadClass;
@@ -110,6 +112,7 @@ public abstract class PayloadCache<K, X extends Payload<K>> implements Comparabl
             }
         }
         autoSaveTask.start();
+        cleanupTask.start();
         running = true;
         return success;
     }
@@ -137,6 +140,7 @@ public abstract class PayloadCache<K, X extends Payload<K>> implements Comparabl
         }
 
         autoSaveTask.stop();
+        cleanupTask.stop();
         running = false;
         return success;
     }
@@ -272,6 +276,7 @@ public abstract class PayloadCache<K, X extends Payload<K>> implements Comparabl
         database.getDatastore().getMapper().getMappedClass(payload.getClass()).getPersistenceFields().forEach(mf -> {
             mf.setFieldValue(payload, mf.getFieldValue(update));
         });
+        payload.setSnapshot(update.getSnapshot());
     }
 
     @Override
@@ -314,7 +319,10 @@ public abstract class PayloadCache<K, X extends Payload<K>> implements Comparabl
         Preconditions.checkNotNull(payload);
         Optional<X> o = getLocalStore().get(payload.getIdentifier());
         if (o.isPresent()) {
-            updatePayloadFromNewer(o.get(), payload);
+            if (o.get() != payload) {
+                updatePayloadFromNewer(o.get(), payload);
+            }
+            getLocalStore().reindex(o.get());
         } else {
             getLocalStore().save(payload);
         }
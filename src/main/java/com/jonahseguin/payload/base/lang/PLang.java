@@ -13,6 +13,7 @@ public enum PLang {
     UNKNOWN_COMMAND("&cUnknown command: '{0}'.  Use /payload for help."),
 
     JOIN_DENY_DATABASE("&c[{0}] The database is currently offline.  Please try again soon, we are working to resolve this issue as soon as possible."),
+    JOIN_DENY_QUEUE_FULL("&c[{0}] The server is busy loading other players.  Please try again in a few seconds."),
 
     ;
 
@@ -0,0 +1,272 @@
+/*
+ * Copyright (c) 2020 Jonah Seguin.  All rights reserved.  You may not modify, decompile, distribute or use any code/text contained in this document(plugin) without explicit signed permission from Jonah Seguin.
+ * www.jonahseguin.com
+ */
+
+package com.jonahseguin.payload.base.memory;
+
+import com.google.common.base.Preconditions;
+import com.jonahseguin.payload.PayloadAPI;
+import com.jonahseguin.payload.base.Cache;
+import com.jonahseguin.payload.base.type.Payload;
+import com.mongodb.BasicDBObject;
+import lombok.Getter;
+import lombok.Setter;
+
+import javax.annotation.Nonnull;
+import javax.management.ListenerNotFoundException;
+import javax.management.Notification;
+import javax.management.NotificationEmitter;
+import javax.management.NotificationListener;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryNotificationInfo;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.MemoryUsage;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+
+/**
+ * Watches heap usage across all caches registered with the {@link PayloadAPI}.
+ * Subscribes to usage-threshold notifications of the tenured (old gen) heap pool; when usage after a collection crosses
+ * {@link #getPressureThreshold()}, evicts clean, offline and least recently used entries from the caches' local stores
+ * (lowest {@link com.jonahseguin.payload.base.settings.CacheSettings#getMemoryPriority()} first) until the estimated
+ * footprint freed brings the pool back down to {@link #getTargetRatio()}.
+ * Per-cache footprint is estimated from the serialized size of a random sample of cached objects.
+ * Failing to evict anything is logged as a warning once per pressure episode, which ends once usage is back below the threshold.
+ */
+public class MemoryGovernor implements NotificationListener {
+
+    private static final int SAMPLE_SIZE = 32; // objects serialized per footprint estimate
+    private static final long SAMPLE_MAX_AGE_MILLIS = 60000L; // footprint estimates are re-sampled after this long
+    private static final long HEAP_BYTES_PER_CHAR = 2L; // rough heap cost of an object per character of its JSON form
+
+    private final PayloadAPI api;
+    private final ConcurrentMap<String, Footprint> footprints = new ConcurrentHashMap<>();
+    private final AtomicBoolean relieving = new AtomicBoolean(false);
+    private final AtomicBoolean warned = new AtomicBoolean(false); // warned during the current pressure episode
+    @Getter private final AtomicLong pressureEvents = new AtomicLong(0L);
+    @Getter private final AtomicLong evicted = new AtomicLong(0L);
+
+    @Getter @Setter private boolean enabled = true; // evict from caches under memory pressure
+    @Getter private double pressureThreshold = 0.85; // fraction of the tenured pool's max usage (after a collection) that counts as memory pressure
+    @Getter @Setter private double targetRatio = 0.70; // evict until the estimated usage is back below this fraction
+
+    @Getter private volatile MemoryPoolMXBean pool = null;
+    @Getter private volatile long lastRelief = 0L;
+    @Getter private volatile int lastReliefEvicted = 0;
+
+    public MemoryGovernor(@Nonnull PayloadAPI api) {
+        Preconditions.checkNotNull(api);
+        this.api = api;
+    }
+
+    public synchronized void start() {
+        if (pool != null) {
+            return;
+        }
+        for (MemoryPoolMXBean bean : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (bean.getType() == MemoryType.HEAP && bean.isUsageThresholdSupported() && bean.getUsage().getMax() > 0) {
+                // The tenured pool is the (last) heap pool that supports usage thresholds
+                pool = bean;
+            }
+        }
+        if (pool == null) {
+            api.getPlugin().getLogger().warning("Payload memory governor disabled: no heap memory pool supports usage thresholds");
+            return;
+        }
+        applyThreshold();
+        ((NotificationEmitter) ManagementFactory.getMemoryMXBean()).addNotificationListener(this, null, null);
+    }
+
+    public synchronized void stop() {
+        if (pool == null) {
+            return;
+        }
+        try {
+            ((NotificationEmitter) ManagementFactory.getMemoryMXBean()).removeNotificationListener(this);
+        } catch (ListenerNotFoundException ignored) {
+            // Not registered
+        }
+        pool = null;
+        footprints.clear();
+    }
+
+    public void setPressureThreshold(double pressureThreshold) {
+        Preconditions.checkArgument(pressureThreshold > 0 && pressureThreshold < 1, "Pressure threshold must be between 0 and 1");
+        this.pressureThreshold = pressureThreshold;
+        applyThreshold();
+    }
+
+    private synchronized void applyThreshold() {
+        if (pool == null) {
+            return;
+        }
+        long threshold = (long) (pool.getUsage().getMax() * pressureThreshold);
+        if (pool.isCollectionUsageThresholdSupported()) {
+            // Usage after a collection is what can't be reclaimed by the GC alone
+            pool.setCollectionUsageThreshold(threshold);
+        } else {
+            pool.setUsageThreshold(threshold);
+        }
+    }
+
+    @Override
+    public void handleNotification(Notification notification, Object handback) {
+        String type = notification.getType();
+        if (!MemoryNotificationInfo.MEMORY_COLLECTION_THRESHOLD_EXCEEDED.equals(type) && !MemoryNotificationInfo.MEMORY_THRESHOLD_EXCEEDED.equals(type)) {
+            return;
+        }
+        pressureEvents.incrementAndGet();
+        if (!enabled || api.getPlugin() == null || !api.getPlugin().isEnabled()) {
+            return;
+        }
+        if (relieving.compareAndSet(false, true)) {
+            // Never do the work on the JMX notification thread
+            api.getPlugin().getServer().getScheduler().runTaskAsynchronously(api.getPlugin(), () -> {
+                try {
+                    relieve();
+                } finally {
+                    relieving.set(false);
+                }
+            });
+        }
+    }
+
+    /**
+     * Evict from all caches until the estimated footprint freed covers the pool's usage above {@link #getTargetRatio()}
+     * @return Number of objects evicted
+     */
+    @SuppressWarnings("unchecked")
+    public int relieve() {
+        MemoryPoolMXBean pool = this.pool;
+        if (pool == null) {
+            return 0;
+        }
+        MemoryUsage usage = currentUsage(pool);
+        if (usage.getUsed() < (long) (usage.getMax() * pressureThreshold)) {
+            warned.set(false);
+        }
+        long excess = usage.getUsed() - (long) (usage.getMax() * targetRatio);
+        if (excess <= 0) {
+            return 0;
+        }
+        List<Cache> caches = new ArrayList<>(api.getCaches().values());
+        caches.sort(Comparator.comparingInt(c -> c.getSettings().getMemoryPriority()));
+        int total = 0;
+        for (Cache cache : caches) {
+            if (excess <= 0) {
+                break;
+            }
+            Footprint footprint = getFootprint(cache, false);
+            if (footprint.getBytesPerObject() <= 0) {
+                continue;
+            }
+            int want = (int) Math.min(Integer.MAX_VALUE, (excess + footprint.getBytesPerObject() - 1) / footprint.getBytesPerObject());
+            int count;
+            try {
+                count = cache.evictForMemory(want);
+            } catch (Exception ex) {
+                cache.getErrorService().capture(ex, "Error evicting from cache " + cache.getName() + " under memory pressure");
+                continue;
+            }
+            if (count > 0) {
+                excess -= count * footprint.getBytesPerObject();
+                total += count;
+                cache.getErrorService().debug("Evicted " + count + " objects from cache " + cache.getName() + " under memory pressure");
+            }
+        }
+        evicted.addAndGet(total);
+        lastRelief = System.currentTimeMillis();
+        lastReliefEvicted = total;
+        Level level = total > 0 ? Level.INFO : (warned.compareAndSet(false, true) ? Level.WARNING : Level.FINE);
+        api.getPlugin().getLogger().log(level, "Payload memory pressure (" + percent(usage) + "% of tenured heap in use): evicted " + total + " cached objects");
+        return total;
+    }
+
+    /**
+     * @param cache Cache
+     * @param resample Sample again even if the last estimate is recent
+     * @return Estimated footprint of the cache's local store
+     */
+    @Nonnull
+    @SuppressWarnings("unchecked")
+    public Footprint getFootprint(@Nonnull Cache cache, boolean resample) {
+        Preconditions.checkNotNull(cache);
+        Footprint last = footprints.get(cache.getName());
+        if (!resample && last != null && System.currentTimeMillis() - last.getSampledAt() < SAMPLE_MAX_AGE_MILLIS) {
+            return last.withCount(cache.getLocalStore().size());
+        }
+        // Reservoir sample, so that the estimate isn't skewed toward whatever the store iterates first
+        List<Payload> sample = new ArrayList<>(SAMPLE_SIZE);
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int seen = 0;
+        for (Object o : cache.getLocalStore().getAll()) {
+            seen++;
+            if (sample.size() < SAMPLE_SIZE) {
+                sample.add((Payload) o);
+            } else {
+                int i = random.nextInt(seen);
+                if (i < SAMPLE_SIZE) {
+                    sample.set(i, (Payload) o);
+                }
+            }
+        }
+        long bytes = 0;
+        int sampled = 0;
+        for (Payload payload : sample) {
+            try {
+                BasicDBObject dbObject = (BasicDBObject) cache.getDatabase().getMorphia().toDBObject(payload);
+                bytes += dbObject.toJson().length() * HEAP_BYTES_PER_CHAR;
+                sampled++;
+            } catch (Exception ex) {
+                cache.getErrorService().debug("Couldn't serialize " + cache.keyToString(payload.getIdentifier()) + " to estimate its size: " + ex.getMessage());
+            }
+        }
+        long perObject = sampled > 0 ? bytes / sampled : (last != null ? last.getBytesPerObject() : 0L);
+        Footprint footprint = new Footprint(perObject, cache.getLocalStore().size(), System.currentTimeMillis());
+        footprints.put(cache.getName(), footprint);
+        return footprint;
+    }
+
+    /**
+     * @return Usage of the tenured pool after the last collection where available (what the GC couldn't reclaim), otherwise current usage
+     */
+    public static MemoryUsage currentUsage(@Nonnull MemoryPoolMXBean pool) {
+        MemoryUsage collection = pool.isCollectionUsageThresholdSupported() ? pool.getCollectionUsage() : null;
+        return collection != null && collection.getMax() > 0 ? collection : pool.getUsage();
+    }
+
+    public static int percent(@Nonnull MemoryUsage usage) {
+        return usage.getMax() > 0 ? (int) ((usage.getUsed() * 100) / usage.getMax()) : 0;
+    }
+
+    @Getter
+    public static class Footprint {
+        private final long bytesPerObject;
+        private final long count;
+        private final long sampledAt;
+
+        private Footprint(long bytesPerObject, long count, long sampledAt) {
+            this.bytesPerObject = bytesPerObject;
+            this.count = count;
+            this.sampledAt = sampledAt;
+        }
+
+        private Footprint withCount(long count) {
+            return new Footprint(bytesPerObject, count, sampledAt);
+        }
+
+        public long getEstimatedBytes() {
+            return bytesPerObject * count;
+        }
+    }
+
+}
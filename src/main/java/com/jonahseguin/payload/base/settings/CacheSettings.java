@@ -15,7 +15,14 @@ import lombok.Setter;
 public abstract class CacheSettings {
 
     private int autoSaveIntervalSeconds = 600;
+    private int cleanupIntervalSeconds = 60; // how often expired objects are evicted from the local store (0 to disable)
     private boolean serverSpecific = false; // should we associate each object with a server, and only cache objects that match this server
     private boolean enableUpdater = true;
+    private long coldTierMaxBytes = 0; // keep objects evicted from the local store serialized (BSON) in memory up to this many bytes, and restore them from there on a local miss (0 to disable)
+    private boolean coldTierCompress = true; // deflate objects in the cold tier (kept uncompressed when that isn't smaller)
+    private boolean coldTierOffHeap = false; // keep the cold tier in direct (off-heap) buffers
+    private int memoryPriority = 0; // under memory pressure, caches with a lower priority are evicted from first
+    private int bulkWriteBatchSize = 500; // save-all, auto-save and shutdown write objects in unordered bulk writes of this many (0 to save them one at a time)
+    private boolean partialUpdates = false; // save only the fields that changed since an object was loaded/saved ($set/$unset), and skip unchanged objects (keeps a BSON snapshot of each cached object)
 
 }
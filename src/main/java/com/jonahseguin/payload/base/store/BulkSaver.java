@@ -0,0 +1,200 @@
+/*
+ * Copyright (c) 2020 Jonah Seguin.  All rights reserved.  You may not modify, decompile, distribute or use any code/text contained in this document(plugin) without explicit signed permission from Jonah Seguin.
+ * www.jonahseguin.com
+ */
+
+package com.jonahseguin.payload.base.store;
+
+import com.google.common.base.Preconditions;
+import com.jonahseguin.payload.base.Cache;
+import com.jonahseguin.payload.base.settings.CacheSettings;
+import com.jonahseguin.payload.base.type.Payload;
+import com.mongodb.BasicDBObject;
+import com.mongodb.BulkWriteError;
+import com.mongodb.BulkWriteException;
+import com.mongodb.BulkWriteOperation;
+import com.mongodb.BulkWriteResult;
+import com.mongodb.DBCollection;
+import com.mongodb.DBObject;
+import lombok.Getter;
+
+import javax.annotation.Nonnull;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Saves many payloads at once (saveAll, auto-save and shutdown) in unordered bulk writes of
+ * {@link CacheSettings#getBulkWriteBatchSize()} per collection, instead of one round trip per payload.
+ * Each payload is written as a replace (upsert) of its whole document, or with {@link CacheSettings#isPartialUpdates()}
+ * as a $set / $unset of what changed (see {@link PartialUpdater}), and skipped if nothing did.
+ * Documents are written through the mapper directly, so Morphia's @PostPersist hooks aren't called for them.
+ */
+public class BulkSaver {
+
+    private final Cache<?, ?> cache;
+    private final PartialUpdater partialUpdater;
+    @Getter private volatile Result lastResult = null;
+
+    public BulkSaver(@Nonnull Cache<?, ?> cache, @Nonnull PartialUpdater partialUpdater) {
+        Preconditions.checkNotNull(cache);
+        Preconditions.checkNotNull(partialUpdater);
+        this.cache = cache;
+        this.partialUpdater = partialUpdater;
+    }
+
+    /**
+     * @param payloads Payloads to save
+     * @return The outcome, including the payloads that failed to save
+     */
+    @Nonnull
+    public Result save(@Nonnull Collection<? extends Payload<?>> payloads) {
+        Preconditions.checkNotNull(payloads);
+        long start = System.currentTimeMillis();
+        int batchSize = Math.max(1, cache.getSettings().getBulkWriteBatchSize());
+        Result result = new Result(payloads.size());
+        Map<Class<?>, List<Payload<?>>> byType = new LinkedHashMap<>();
+        for (Payload<?> payload : payloads) {
+            byType.computeIfAbsent(payload.getClass(), c -> new ArrayList<>()).add(payload);
+        }
+        for (Map.Entry<Class<?>, List<Payload<?>>> entry : byType.entrySet()) {
+            DBCollection collection = cache.getDatabase().getDatastore().getCollection(entry.getKey());
+            List<Payload<?>> list = entry.getValue();
+            for (int i = 0; i < list.size(); i += batchSize) {
+                write(collection, list.subList(i, Math.min(list.size(), i + batchSize)), result);
+            }
+        }
+        result.millis = System.currentTimeMillis() - start;
+        lastResult = result;
+        cache.getErrorService().debug("Bulk saved cache " + cache.getName() + ": " + result);
+        return result;
+    }
+
+    private void write(DBCollection collection, List<Payload<?>> batch, Result result) {
+        boolean partial = cache.getSettings().isPartialUpdates();
+        List<Payload<?>> written = new ArrayList<>(batch.size());
+        List<DBObject> documents = new ArrayList<>(batch.size());
+        List<Payload<?>> updated = new ArrayList<>();
+        BulkWriteOperation bulk = collection.initializeUnorderedBulkOperation();
+        for (Payload<?> payload : batch) {
+            DBObject document;
+            try {
+                document = cache.getDatabase().getMorphia().toDBObject(payload);
+            } catch (Exception ex) {
+                cache.getErrorService().capture(ex, "Error mapping payload for bulk save in cache " + cache.getName());
+                result.failed.add(payload);
+                continue;
+            }
+            Object id = document.get("_id");
+            if (id == null) {
+                result.failed.add(payload);
+                continue;
+            }
+            DBObject update = partial ? partialUpdater.diff(payload, document) : null;
+            if (update != null && update.keySet().isEmpty()) {
+                result.skipped++;
+                continue;
+            }
+            if (update != null) {
+                bulk.find(new BasicDBObject("_id", id)).updateOne(update);
+                updated.add(payload);
+            } else {
+                bulk.find(new BasicDBObject("_id", id)).upsert().replaceOne(document);
+            }
+            written.add(payload);
+            documents.add(document);
+        }
+        if (written.isEmpty()) {
+            return;
+        }
+        Set<Integer> errors = new HashSet<>();
+        BulkWriteResult writeResult;
+        try {
+            writeResult = bulk.execute();
+        } catch (BulkWriteException ex) {
+            for (BulkWriteError error : ex.getWriteErrors()) {
+                errors.add(error.getIndex());
+            }
+            writeResult = ex.getWriteResult();
+            cache.getErrorService().capture(ex, errors.size() + " of " + written.size() + " payloads failed to bulk save in cache " + cache.getName());
+        } catch (Exception ex) {
+            cache.getErrorService().capture(ex, "Error bulk saving " + written.size() + " payloads in cache " + cache.getName());
+            result.failed.addAll(written);
+            return;
+        }
+        // Every replace either matches or upserts, so anything short of that is a partial update whose document is gone
+        if (!updated.isEmpty() && writeResult != null && writeResult.isAcknowledged()
+                && writeResult.getMatchedCount() + writeResult.getUpserts().size() < written.size() - errors.size()) {
+            replace(collection, written, documents, updated, errors);
+        }
+        for (int i = 0; i < written.size(); i++) {
+            Payload<?> payload = written.get(i);
+            if (errors.contains(i)) {
+                result.failed.add(payload);
+            } else {
+                result.written++;
+                payload.markPersisted(documents.get(i));
+            }
+        }
+    }
+
+    private void replace(DBCollection collection, List<Payload<?>> written, List<DBObject> documents, List<Payload<?>> updated, Set<Integer> errors) {
+        Set<Payload<?>> updatedSet = Collections.newSetFromMap(new IdentityHashMap<>());
+        updatedSet.addAll(updated);
+        List<Integer> indexes = new ArrayList<>(updated.size());
+        BulkWriteOperation bulk = collection.initializeUnorderedBulkOperation();
+        for (int i = 0; i < written.size(); i++) {
+            if (!errors.contains(i) && updatedSet.contains(written.get(i))) {
+                DBObject document = documents.get(i);
+                bulk.find(new BasicDBObject("_id", document.get("_id"))).upsert().replaceOne(document);
+                indexes.add(i);
+            }
+        }
+        try {
+            bulk.execute();
+        } catch (BulkWriteException ex) {
+            for (BulkWriteError error : ex.getWriteErrors()) {
+                errors.add(indexes.get(error.getIndex()));
+            }
+        } catch (Exception ex) {
+            cache.getErrorService().capture(ex, "Error re-saving " + indexes.size() + " payloads in full in cache " + cache.getName());
+            errors.addAll(indexes);
+        }
+    }
+
+    @Getter
+    public static class Result {
+        private final int total;
+        private int written = 0;
+        private int skipped = 0; // unchanged, with partial updates
+        private final Set<Payload<?>> failed = Collections.newSetFromMap(new IdentityHashMap<>());
+        private long millis = 0L;
+
+        private Result(int total) {
+            this.total = total;
+        }
+
+        public boolean isFailed(@Nonnull Payload<?> payload) {
+            return failed.contains(payload);
+        }
+
+        /**
+         * @return Payloads saved (or skipped as unchanged) per second
+         */
+        public long getPerSecond() {
+            return millis > 0 ? ((written + skipped) * 1000L) / millis : written + skipped;
+        }
+
+        @Override
+        public String toString() {
+            return written + "/" + total + " written, " + skipped + " unchanged, " + failed.size() + " failed in " + millis + "ms (" + getPerSecond() + "/s)";
+        }
+    }
+
+}
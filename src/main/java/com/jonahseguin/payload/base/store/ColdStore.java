@@ -0,0 +1,270 @@
+/*
+ * Copyright (c) 2020 Jonah Seguin.  All rights reserved.  You may not modify, decompile, distribute or use any code/text contained in this document(plugin) without explicit signed permission from Jonah Seguin.
+ * www.jonahseguin.com
+ */
+
+package com.jonahseguin.payload.base.store;
+
+import com.google.common.base.Preconditions;
+import com.jonahseguin.payload.base.Cache;
+import com.jonahseguin.payload.base.settings.CacheSettings;
+import com.jonahseguin.payload.base.type.Payload;
+import com.mongodb.DBCollection;
+import com.mongodb.DBObject;
+import com.mongodb.DefaultDBDecoder;
+import lombok.Getter;
+import org.bson.BasicBSONEncoder;
+
+import javax.annotation.Nonnull;
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * A second local tier behind a local store, holding objects evicted from it as serialized BSON (optionally deflated, and
+ * optionally in direct buffers off the heap), within {@link CacheSettings#getColdTierMaxBytes()}.
+ * A local store miss takes the object back out of this tier and deserializes it, instead of reading it from the database.
+ * Only objects without unsaved changes are put here, so a restored object is the same as the stored copy was when it was evicted.
+ * Least recently stored objects are dropped first once the byte budget is reached.
+ * @param <K> Key type
+ * @param <X> Object type
+ */
+public class ColdStore<K, X extends Payload<K>> {
+
+    private static final int MIN_COMPRESS_BYTES = 256; // smaller objects rarely deflate to anything smaller
+
+    private final Cache<K, X> cache;
+    private final LinkedHashMap<K, Entry> entries = new LinkedHashMap<>(16, 0.75F, true);
+    private volatile int count = 0;
+    private volatile long bytes = 0L;
+    @Getter private final LongAdder hits = new LongAdder();
+    @Getter private final LongAdder misses = new LongAdder();
+    @Getter private final LongAdder stored = new LongAdder();
+    @Getter private final LongAdder evictions = new LongAdder();
+    @Getter private final LongAdder failures = new LongAdder();
+
+    public ColdStore(@Nonnull Cache<K, X> cache) {
+        Preconditions.checkNotNull(cache);
+        this.cache = cache;
+    }
+
+    public boolean isEnabled() {
+        return cache.getSettings().getColdTierMaxBytes() > 0;
+    }
+
+    /**
+     * Keep a serialized copy of an object that was evicted from the local store
+     * @param key Key in the local store
+     * @param payload The evicted object (without unsaved changes)
+     * @return true if it was stored
+     */
+    public boolean put(@Nonnull K key, @Nonnull X payload) {
+        Preconditions.checkNotNull(key);
+        Preconditions.checkNotNull(payload);
+        CacheSettings settings = cache.getSettings();
+        long max = settings.getColdTierMaxBytes();
+        if (max <= 0) {
+            return false;
+        }
+        byte[] data;
+        try {
+            DBObject dbObject = cache.getDatabase().getMorphia().toDBObject(payload);
+            data = new BasicBSONEncoder().encode(dbObject);
+        } catch (Exception ex) {
+            failures.increment();
+            cache.getErrorService().capture(ex, "Error serializing " + cache.keyToString(key) + " for the cold tier");
+            return false;
+        }
+        int rawLength = data.length;
+        boolean compressed = false;
+        if (settings.isColdTierCompress() && data.length >= MIN_COMPRESS_BYTES) {
+            byte[] deflated = deflate(data);
+            if (deflated.length < data.length) {
+                data = deflated;
+                compressed = true;
+            }
+        }
+        if (data.length > max) {
+            return false;
+        }
+        Entry entry = new Entry(data, compressed, rawLength, settings.isColdTierOffHeap());
+        synchronized (entries) {
+            Entry old = entries.put(key, entry);
+            long size = bytes + entry.size() - (old != null ? old.size() : 0);
+            Iterator<Entry> it = entries.values().iterator();
+            while (size > max && it.hasNext()) {
+                Entry eldest = it.next();
+                if (eldest == entry) {
+                    break;
+                }
+                it.remove();
+                size -= eldest.size();
+                evictions.increment();
+            }
+            bytes = size;
+            count = entries.size();
+        }
+        stored.increment();
+        return true;
+    }
+
+    /**
+     * Remove an object from this tier and deserialize it
+     * @param key Key in the local store
+     * @return The object, or null if it isn't in this tier
+     */
+    public X take(@Nonnull K key) {
+        if (count == 0) {
+            return null;
+        }
+        Entry entry;
+        synchronized (entries) {
+            entry = entries.remove(key);
+            if (entry != null) {
+                bytes -= entry.size();
+                count = entries.size();
+            }
+        }
+        if (entry == null) {
+            misses.increment();
+            return null;
+        }
+        try {
+            byte[] data = entry.read();
+            if (entry.compressed) {
+                data = inflate(data, entry.rawLength);
+            }
+            DBObject dbObject = new DefaultDBDecoder().decode(data, (DBCollection) null);
+            X payload = cache.getDatabase().getMorphia().fromDBObject(cache.getDatabase().getDatastore(), cache.getPayloadClass(), dbObject);
+            hits.increment();
+            return payload;
+        } catch (Exception ex) {
+            failures.increment();
+            cache.getErrorService().capture(ex, "Error restoring " + cache.keyToString(key) + " from the cold tier");
+            return null;
+        }
+    }
+
+    /**
+     * @param key Key in the local store
+     * @return When the object was put in this tier, or 0 if it isn't in this tier
+     */
+    public long getStoredAt(@Nonnull K key) {
+        if (count == 0) {
+            return 0L;
+        }
+        synchronized (entries) {
+            Entry entry = entries.get(key);
+            return entry != null ? entry.storedAt : 0L;
+        }
+    }
+
+    public void remove(@Nonnull K key) {
+        if (count == 0) {
+            return;
+        }
+        synchronized (entries) {
+            Entry entry = entries.remove(key);
+            if (entry != null) {
+                bytes -= entry.size();
+                count = entries.size();
+            }
+        }
+    }
+
+    public void clear() {
+        synchronized (entries) {
+            entries.clear();
+            bytes = 0L;
+            count = 0;
+        }
+    }
+
+    public int size() {
+        return count;
+    }
+
+    /**
+     * @return Bytes held by this tier (compressed size, where compressed)
+     */
+    public long getBytes() {
+        return bytes;
+    }
+
+    private static byte[] deflate(byte[] data) {
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        try {
+            deflater.setInput(data);
+            deflater.finish();
+            ByteArrayOutputStream out = new ByteArrayOutputStream(data.length / 2);
+            byte[] buffer = new byte[4096];
+            while (!deflater.finished()) {
+                int n = deflater.deflate(buffer);
+                out.write(buffer, 0, n);
+            }
+            return out.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    private static byte[] inflate(byte[] data, int rawLength) throws DataFormatException {
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(data);
+            byte[] out = new byte[rawLength];
+            int n = 0;
+            while (n < rawLength && !inflater.finished()) {
+                int read = inflater.inflate(out, n, rawLength - n);
+                if (read == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    throw new DataFormatException("Truncated cold tier entry");
+                }
+                n += read;
+            }
+            return out;
+        } finally {
+            inflater.end();
+        }
+    }
+
+    private static final class Entry {
+        private final byte[] heap;
+        private final ByteBuffer direct;
+        private final boolean compressed;
+        private final int rawLength;
+        private final long storedAt = System.currentTimeMillis();
+
+        private Entry(byte[] data, boolean compressed, int rawLength, boolean offHeap) {
+            if (offHeap) {
+                this.direct = ByteBuffer.allocateDirect(data.length);
+                this.direct.put(data);
+                this.direct.flip();
+                this.heap = null;
+            } else {
+                this.heap = data;
+                this.direct = null;
+            }
+            this.compressed = compressed;
+            this.rawLength = rawLength;
+        }
+
+        private int size() {
+            return heap != null ? heap.length : direct.capacity();
+        }
+
+        private byte[] read() {
+            if (heap != null) {
+                return heap;
+            }
+            byte[] data = new byte[direct.capacity()];
+            direct.duplicate().get(data);
+            return data;
+        }
+    }
+
+}
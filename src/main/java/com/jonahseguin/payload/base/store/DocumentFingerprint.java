@@ -0,0 +1,109 @@
+/*
+ * Copyright (c) 2020 Jonah Seguin.  All rights reserved.  You may not modify, decompile, distribute or use any code/text contained in this document(plugin) without explicit signed permission from Jonah Seguin.
+ * www.jonahseguin.com
+ */
+
+package com.jonahseguin.payload.base.store;
+
+import org.bson.BSONObject;
+import org.bson.types.Binary;
+import org.bson.types.ObjectId;
+
+import javax.annotation.Nonnull;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+/**
+ * A 64-bit (FNV-1a) hash of a document's content, to tell whether an object changed since it was loaded or saved
+ * without keeping a copy of the document.
+ * Field order doesn't matter (keys are hashed sorted), values are hashed with their type, so i.e. a field that went
+ * from 1 to 1L or "1" counts as changed.  Never returns 0, which callers can use for "unknown".
+ */
+public final class DocumentFingerprint {
+
+    private static final long OFFSET = 0xcbf29ce484222325L;
+    private static final long PRIME = 0x100000001b3L;
+
+    private DocumentFingerprint() {
+    }
+
+    public static long of(@Nonnull BSONObject document) {
+        long hash = hash(OFFSET, document);
+        return hash != 0 ? hash : 1;
+    }
+
+    private static long hash(long h, Object value) {
+        if (value == null) {
+            return mix(h, 0);
+        } else if (value instanceof List) {
+            h = mix(h, 1);
+            for (Object element : (List<?>) value) {
+                h = hash(h, element);
+            }
+            return mix(h, 2);
+        } else if (value instanceof BSONObject || value instanceof Map) {
+            Map<?, ?> map = value instanceof BSONObject ? ((BSONObject) value).toMap() : (Map<?, ?>) value;
+            TreeSet<String> keys = new TreeSet<>();
+            for (Object key : map.keySet()) {
+                keys.add(String.valueOf(key));
+            }
+            h = mix(h, 3);
+            for (String key : keys) {
+                h = mixString(h, key);
+                h = hash(h, map.get(key));
+            }
+            return mix(h, 4);
+        } else if (value instanceof String) {
+            return mixString(mix(h, 5), (String) value);
+        } else if (value instanceof Double || value instanceof Float) {
+            return mixLong(mix(h, value instanceof Double ? 6 : 7), Double.doubleToLongBits(((Number) value).doubleValue()));
+        } else if (value instanceof Long) {
+            return mixLong(mix(h, 8), (Long) value);
+        } else if (value instanceof Number) {
+            return mixLong(mix(h, 9), ((Number) value).longValue());
+        } else if (value instanceof Boolean) {
+            return mix(h, (Boolean) value ? 10 : 11);
+        } else if (value instanceof Date) {
+            return mixLong(mix(h, 12), ((Date) value).getTime());
+        } else if (value instanceof ObjectId) {
+            return mixBytes(mix(h, 13), ((ObjectId) value).toByteArray());
+        } else if (value instanceof byte[]) {
+            return mixBytes(mix(h, 14), (byte[]) value);
+        } else if (value instanceof Binary) {
+            return mixBytes(mix(mix(h, 15), ((Binary) value).getType()), ((Binary) value).getData());
+        } else {
+            return mixString(mixString(h, value.getClass().getName()), value.toString());
+        }
+    }
+
+    private static long mix(long h, int b) {
+        return (h ^ (b & 0xFF)) * PRIME;
+    }
+
+    private static long mixLong(long h, long value) {
+        for (int i = 0; i < 8; i++) {
+            h = mix(h, (int) (value >>> (i * 8)));
+        }
+        return h;
+    }
+
+    private static long mixString(long h, String value) {
+        h = mixLong(h, value.length()); // so "ab"+"c" differs from "a"+"bc"
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            h = mix(mix(h, c), c >>> 8);
+        }
+        return h;
+    }
+
+    private static long mixBytes(long h, byte[] bytes) {
+        h = mixLong(h, bytes.length);
+        for (byte b : bytes) {
+            h = mix(h, b);
+        }
+        return h;
+    }
+
+}
@@ -0,0 +1,156 @@
+/*
+ * Copyright (c) 2020 Jonah Seguin.  All rights reserved.  You may not modify, decompile, distribute or use any code/text contained in this document(plugin) without explicit signed permission from Jonah Seguin.
+ * www.jonahseguin.com
+ */
+
+package com.jonahseguin.payload.base.store;
+
+import com.google.common.base.Preconditions;
+import lombok.Getter;
+
+import javax.annotation.Nonnull;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Function;
+
+/**
+ * A secondary index on a local store, mapping values extracted from each cached object to the object's key.
+ * Maintained by the store on save/remove; lookups are O(1) and lock-free.
+ * @param <K> Key type of the store
+ * @param <X> Object type
+ * @param <V> Indexed value type
+ */
+@Getter
+public class LocalIndex<K, X, V> {
+
+    private final String name;
+    private final boolean unique;
+    private final Function<X, Collection<V>> extractor;
+    private final ConcurrentMap<V, Set<K>> byValue = new ConcurrentHashMap<>();
+    private final ConcurrentMap<K, Collection<V>> byKey = new ConcurrentHashMap<>(); // values each key is currently indexed under
+
+    private LocalIndex(@Nonnull String name, boolean unique, @Nonnull Function<X, Collection<V>> extractor) {
+        Preconditions.checkNotNull(name);
+        Preconditions.checkNotNull(extractor);
+        this.name = name;
+        this.unique = unique;
+        this.extractor = extractor;
+    }
+
+    /**
+     * An index where each value belongs to at most one object (the most recently saved one wins)
+     * @param name Index name
+     * @param extractor Value of an object, or null to leave it out of the index
+     */
+    public static <K, X, V> LocalIndex<K, X, V> unique(@Nonnull String name, @Nonnull Function<X, V> extractor) {
+        return new LocalIndex<>(name, true, single(extractor));
+    }
+
+    /**
+     * An index where many objects can share a value
+     * @param name Index name
+     * @param extractor Value of an object, or null to leave it out of the index
+     */
+    public static <K, X, V> LocalIndex<K, X, V> nonUnique(@Nonnull String name, @Nonnull Function<X, V> extractor) {
+        return new LocalIndex<>(name, false, single(extractor));
+    }
+
+    /**
+     * An index where each object can have many values (i.e. the members of a guild), and many objects can share a value
+     * @param name Index name
+     * @param extractor Values of an object, or null/empty to leave it out of the index
+     */
+    public static <K, X, V> LocalIndex<K, X, V> multiValued(@Nonnull String name, @Nonnull Function<X, Collection<V>> extractor) {
+        return new LocalIndex<>(name, false, extractor);
+    }
+
+    private static <X, V> Function<X, Collection<V>> single(Function<X, V> extractor) {
+        return x -> {
+            V v = extractor.apply(x);
+            return v != null ? Collections.singleton(v) : Collections.emptySet();
+        };
+    }
+
+    public synchronized void index(@Nonnull K key, @Nonnull X payload) {
+        Collection<V> values = extractor.apply(payload);
+        if (values == null) {
+            values = Collections.emptySet();
+        }
+        Collection<V> previous = byKey.get(key);
+        if (previous != null && previous.equals(values)) {
+            return;
+        }
+        unindex(key);
+        if (values.isEmpty()) {
+            return;
+        }
+        Collection<V> copy = values.size() == 1 ? Collections.singleton(values.iterator().next()) : new HashSet<>(values);
+        for (V value : copy) {
+            Set<K> keys = byValue.computeIfAbsent(value, v -> ConcurrentHashMap.newKeySet());
+            if (unique) {
+                for (K other : keys) {
+                    if (!other.equals(key)) {
+                        keys.remove(other);
+                        byKey.remove(other);
+                    }
+                }
+            }
+            keys.add(key);
+        }
+        byKey.put(key, copy);
+    }
+
+    public synchronized void unindex(@Nonnull K key) {
+        Collection<V> previous = byKey.remove(key);
+        if (previous != null) {
+            for (V value : previous) {
+                Set<K> keys = byValue.get(value);
+                if (keys != null) {
+                    keys.remove(key);
+                    if (keys.isEmpty()) {
+                        byValue.remove(value, keys);
+                    }
+                }
+            }
+        }
+    }
+
+    public synchronized void clear() {
+        byValue.clear();
+        byKey.clear();
+    }
+
+    /**
+     * @param value Indexed value
+     * @return A key indexed under the value (the only one, for unique indexes)
+     */
+    public Optional<K> getKey(@Nonnull V value) {
+        Preconditions.checkNotNull(value);
+        Set<K> keys = byValue.get(value);
+        if (keys != null) {
+            Iterator<K> it = keys.iterator();
+            if (it.hasNext()) {
+                return Optional.of(it.next());
+            }
+        }
+        return Optional.empty();
+    }
+
+    /**
+     * @param value Indexed value
+     * @return Every key indexed under the value
+     */
+    @Nonnull
+    public Set<K> getKeys(@Nonnull V value) {
+        Preconditions.checkNotNull(value);
+        Set<K> keys = byValue.get(value);
+        return keys != null ? Collections.unmodifiableSet(keys) : Collections.emptySet();
+    }
+
+}
@@ -0,0 +1,111 @@
+/*
+ * Copyright (c) 2020 Jonah Seguin.  All rights reserved.  You may not modify, decompile, distribute or use any code/text contained in this document(plugin) without explicit signed permission from Jonah Seguin.
+ * www.jonahseguin.com
+ */
+
+package com.jonahseguin.payload.base.store;
+
+import com.google.common.base.Preconditions;
+import com.jonahseguin.payload.base.Cache;
+import com.mongodb.BasicDBObject;
+import com.mongodb.BulkWriteOperation;
+import com.mongodb.DBCollection;
+import com.mongodb.DBCursor;
+import com.mongodb.DBObject;
+
+import javax.annotation.Nonnull;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * One-time migration that fills in the lowercase shadow fields (i.e. usernameLower) of documents saved before those
+ * fields existed, so that case-insensitive lookups can be exact matches on an index instead of case-insensitive regexes.
+ * Only documents missing a shadow field are read (with only the source fields projected), and they are updated in
+ * unordered bulk writes.  New and re-saved documents get their shadow fields when they are persisted.
+ * Until {@link #isComplete()}, stores should keep querying the original fields case-insensitively, since not every
+ * document has been given its shadow fields yet.
+ */
+public class LowercaseBackfill implements Runnable {
+
+    private static final int BATCH_SIZE = 500; // documents updated per bulk write
+
+    private final Cache<?, ?> cache;
+    private final Class<?> type;
+    private final Map<String, String> fields = new LinkedHashMap<>(); // shadow field -> source field
+    private volatile boolean complete = false;
+
+    public LowercaseBackfill(@Nonnull Cache<?, ?> cache, @Nonnull Class<?> type) {
+        Preconditions.checkNotNull(cache);
+        Preconditions.checkNotNull(type);
+        this.cache = cache;
+        this.type = type;
+    }
+
+    /**
+     * @param shadow Field holding the lowercase copy
+     * @param source Field it is copied from
+     * @return This backfill
+     */
+    public LowercaseBackfill field(@Nonnull String shadow, @Nonnull String source) {
+        Preconditions.checkNotNull(shadow);
+        Preconditions.checkNotNull(source);
+        fields.put(shadow, source);
+        return this;
+    }
+
+    public boolean isComplete() {
+        return complete;
+    }
+
+    @Override
+    public void run() {
+        if (complete || fields.isEmpty()) {
+            complete = true;
+            return;
+        }
+        try {
+            DBCollection collection = cache.getDatabase().getDatastore().getCollection(type);
+            List<DBObject> missing = new ArrayList<>(fields.size());
+            BasicDBObject projection = new BasicDBObject();
+            for (Map.Entry<String, String> entry : fields.entrySet()) {
+                missing.add(new BasicDBObject(entry.getKey(), new BasicDBObject("$exists", false)));
+                projection.put(entry.getValue(), 1);
+            }
+            long updated = 0;
+            int pending = 0;
+            BulkWriteOperation bulk = collection.initializeUnorderedBulkOperation();
+            try (DBCursor cursor = collection.find(new BasicDBObject("$or", missing), projection)) {
+                while (cursor.hasNext()) {
+                    DBObject document = cursor.next();
+                    BasicDBObject set = new BasicDBObject();
+                    for (Map.Entry<String, String> entry : fields.entrySet()) {
+                        Object value = document.get(entry.getValue());
+                        // Set even when null, so the document isn't picked up again
+                        set.put(entry.getKey(), value instanceof String ? ((String) value).toLowerCase(Locale.ROOT) : null);
+                    }
+                    bulk.find(new BasicDBObject("_id", document.get("_id"))).updateOne(new BasicDBObject("$set", set));
+                    if (++pending >= BATCH_SIZE) {
+                        bulk.execute();
+                        updated += pending;
+                        pending = 0;
+                        bulk = collection.initializeUnorderedBulkOperation();
+                    }
+                }
+            }
+            if (pending > 0) {
+                bulk.execute();
+                updated += pending;
+            }
+            complete = true;
+            if (updated > 0) {
+                cache.getErrorService().debug("Backfilled lowercase fields " + fields.keySet() + " of " + updated + " documents in cache " + cache.getName());
+            }
+        } catch (Exception ex) {
+            cache.getErrorService().capture(ex, "Error backfilling lowercase fields " + fields.keySet() + " in cache " + cache.getName());
+        }
+    }
+
+}
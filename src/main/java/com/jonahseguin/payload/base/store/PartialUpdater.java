@@ -0,0 +1,128 @@
+/*
+ * Copyright (c) 2020 Jonah Seguin.  All rights reserved.  You may not modify, decompile, distribute or use any code/text contained in this document(plugin) without explicit signed permission from Jonah Seguin.
+ * www.jonahseguin.com
+ */
+
+package com.jonahseguin.payload.base.store;
+
+import com.google.common.base.Preconditions;
+import com.jonahseguin.payload.base.Cache;
+import com.jonahseguin.payload.base.settings.CacheSettings;
+import com.jonahseguin.payload.base.type.Payload;
+import com.mongodb.BasicDBList;
+import com.mongodb.BasicDBObject;
+import com.mongodb.DBCollection;
+import com.mongodb.DBObject;
+import com.mongodb.DefaultDBDecoder;
+import com.mongodb.WriteResult;
+import lombok.Getter;
+import org.bson.BasicBSONEncoder;
+
+import javax.annotation.Nonnull;
+import java.util.Objects;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Saves payloads with {@link CacheSettings#isPartialUpdates()} by writing only what changed since the document was last
+ * loaded or saved, instead of replacing the whole document.
+ * Each payload keeps a snapshot (the BSON it was loaded or saved as, see {@link Payload#getSnapshot()}); on save, its
+ * current mapped form is diffed against that snapshot, descending into embedded documents, and only the changed paths
+ * are written with $set / $unset.  Unchanged payloads aren't written at all.
+ * Payloads without a snapshot (never loaded or saved) and documents that no longer exist are saved in full by the caller.
+ */
+public class PartialUpdater {
+
+    private final Cache<?, ?> cache;
+    @Getter private final LongAdder partial = new LongAdder();
+    @Getter private final LongAdder skipped = new LongAdder();
+
+    public PartialUpdater(@Nonnull Cache<?, ?> cache) {
+        Preconditions.checkNotNull(cache);
+        this.cache = cache;
+    }
+
+    /**
+     * @param payload Payload to save
+     * @return true if the payload was saved (or didn't need to be), false if it has to be saved in full
+     */
+    public boolean save(@Nonnull Payload<?> payload) {
+        Preconditions.checkNotNull(payload);
+        DBObject current = cache.getDatabase().getMorphia().toDBObject(payload);
+        DBObject update = diff(payload, current);
+        if (update == null) {
+            return false;
+        }
+        if (update.keySet().isEmpty()) {
+            skipped.increment();
+            return true;
+        }
+        DBCollection collection = cache.getDatabase().getDatastore().getCollection(payload.getClass());
+        WriteResult result = collection.update(new BasicDBObject("_id", current.get("_id")), update);
+        if (result.getN() == 0) {
+            return false; // The document is gone
+        }
+        payload.markPersisted(current);
+        partial.increment();
+        return true;
+    }
+
+    /**
+     * @param payload Payload
+     * @param current Its current mapped form
+     * @return The $set / $unset update since its snapshot (empty if nothing changed), or null if it has to be saved in full
+     */
+    public DBObject diff(@Nonnull Payload<?> payload, @Nonnull DBObject current) {
+        byte[] snapshot = payload.getSnapshot();
+        if (snapshot == null || current.get("_id") == null) {
+            return null;
+        }
+        DBObject previous = new DefaultDBDecoder().decode(snapshot, (DBCollection) null);
+        BasicDBObject set = new BasicDBObject();
+        BasicDBObject unset = new BasicDBObject();
+        diff("", previous, current, set, unset);
+        BasicDBObject update = new BasicDBObject();
+        if (!set.isEmpty()) {
+            update.put("$set", set);
+        }
+        if (!unset.isEmpty()) {
+            update.put("$unset", unset);
+        }
+        return update;
+    }
+
+    private static void diff(String prefix, DBObject previous, DBObject current, BasicDBObject set, BasicDBObject unset) {
+        for (String key : current.keySet()) {
+            if (prefix.isEmpty() && key.equals("_id")) {
+                continue;
+            }
+            String path = prefix + key;
+            Object now = current.get(key);
+            Object before = previous.get(key);
+            if (!previous.containsField(key)) {
+                set.put(path, now);
+            } else if (isDocument(now) && isDocument(before)) {
+                diff(path + ".", (DBObject) before, (DBObject) now, set, unset);
+            } else if (!Objects.deepEquals(now, before)) {
+                set.put(path, now);
+            }
+        }
+        for (String key : previous.keySet()) {
+            if (!current.containsField(key)) {
+                unset.put(prefix + key, "");
+            }
+        }
+    }
+
+    private static boolean isDocument(Object value) {
+        return value instanceof DBObject && !(value instanceof BasicDBList);
+    }
+
+    /**
+     * @param dbObject A payload's document, as loaded or saved
+     * @return The snapshot to keep for it
+     */
+    public static byte[] snapshot(@Nonnull DBObject dbObject) {
+        return new BasicBSONEncoder().encode(dbObject);
+    }
+
+}
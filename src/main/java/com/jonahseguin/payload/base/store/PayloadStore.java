@@ -40,4 +40,20 @@ public interface PayloadStore<K, X extends Payload> extends Service {
 
     boolean isDatabase();
 
+    /**
+     * Refresh any secondary indexes for a payload whose fields were changed in place (i.e. updated from a newer copy)
+     * @param payload The payload
+     */
+    default void reindex(@Nonnull X payload) {
+        // No indexes by default
+    }
+
+    /**
+     * Drop any copy of a payload kept outside of the live cache (i.e. in the cold tier), because it was changed elsewhere
+     * @param key The payload's key
+     */
+    default void invalidate(@Nonnull K key) {
+        // Nothing kept by default
+    }
+
 }
@@ -0,0 +1,97 @@
+/*
+ * Copyright (c) 2020 Jonah Seguin.  All rights reserved.  You may not modify, decompile, distribute or use any code/text contained in this document(plugin) without explicit signed permission from Jonah Seguin.
+ * www.jonahseguin.com
+ */
+
+package com.jonahseguin.payload.base.store.eviction;
+
+import java.util.Arrays;
+
+/**
+ * A count-min sketch of 4-bit counters used to estimate how often a key has been seen recently.
+ * Counters are halved once every {@code 10 * capacity} increments so that the estimate ages out old popularity.
+ * Not thread-safe; guarded by the owner of the {@link TinyLfuPolicy}.
+ */
+public class FrequencySketch {
+
+    private static final long[] SEEDS = {0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L, 0x9ae16a3b2f90404fL, 0xcbf29ce484222325L};
+    private static final long RESET_MASK = 0x7777777777777777L;
+    private static final int MAX_COUNT = 15;
+
+    private long[] table = new long[16];
+    private int tableMask = 15;
+    private int sampleSize = 160;
+    private int size = 0;
+
+    /**
+     * Grow the sketch to track about {@param capacity} keys; existing counts are discarded if it grows
+     * @param capacity Expected number of keys
+     */
+    public void ensureCapacity(long capacity) {
+        int maximum = (int) Math.min(Math.max(capacity, 16L), 1 << 30);
+        if (table.length >= maximum) {
+            return;
+        }
+        table = new long[ceilingPowerOfTwo(maximum)];
+        tableMask = table.length - 1;
+        sampleSize = 10 * maximum;
+        size = 0;
+    }
+
+    public int frequency(Object key) {
+        int hash = spread(key.hashCode());
+        int frequency = MAX_COUNT;
+        for (int i = 0; i < SEEDS.length; i++) {
+            long h = indexHash(hash, i);
+            int index = (int) h & tableMask;
+            int offset = (int) ((h >>> 40) & 15L) << 2;
+            frequency = Math.min(frequency, (int) ((table[index] >>> offset) & 0xFL));
+        }
+        return frequency;
+    }
+
+    public void increment(Object key) {
+        int hash = spread(key.hashCode());
+        boolean added = false;
+        for (int i = 0; i < SEEDS.length; i++) {
+            long h = indexHash(hash, i);
+            int index = (int) h & tableMask;
+            int offset = (int) ((h >>> 40) & 15L) << 2;
+            if (((table[index] >>> offset) & 0xFL) < MAX_COUNT) {
+                table[index] += 1L << offset;
+                added = true;
+            }
+        }
+        if (added && ++size >= sampleSize) {
+            reset();
+        }
+    }
+
+    public void clear() {
+        Arrays.fill(table, 0L);
+        size = 0;
+    }
+
+    private void reset() {
+        for (int i = 0; i < table.length; i++) {
+            table[i] = (table[i] >>> 1) & RESET_MASK;
+        }
+        size = size / 2;
+    }
+
+    private static long indexHash(int hash, int i) {
+        long h = (hash + SEEDS[i]) * SEEDS[i];
+        return h + (h >>> 32);
+    }
+
+    private static int spread(int x) {
+        x = ((x >>> 16) ^ x) * 0x45d9f3b;
+        x = ((x >>> 16) ^ x) * 0x45d9f3b;
+        return (x >>> 16) ^ x;
+    }
+
+    private static int ceilingPowerOfTwo(int x) {
+        return 1 << -Integer.numberOfLeadingZeros(x - 1);
+    }
+
+}
@@ -0,0 +1,160 @@
+/*
+ * Copyright (c) 2020 Jonah Seguin.  All rights reserved.  You may not modify, decompile, distribute or use any code/text contained in this document(plugin) without explicit signed permission from Jonah Seguin.
+ * www.jonahseguin.com
+ */
+
+package com.jonahseguin.payload.base.store.eviction;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+/**
+ * W-TinyLFU eviction policy.  New keys enter a small LRU admission window (1% of the maximum); keys leaving the window
+ * are only admitted to the main region if the {@link FrequencySketch} estimates they are used more often than the key
+ * the main region would evict for them.  The main region is a segmented LRU: keys hit again while on probation are
+ * promoted to the protected segment (80% of the main region).
+ * Not thread-safe; callers must guard it with their own lock.
+ * @param <K> Key type
+ */
+public class TinyLfuPolicy<K> {
+
+    private static final double PROTECTED_RATIO = 0.8D;
+
+    private final FrequencySketch sketch = new FrequencySketch();
+    // Access ordered: the head is the least recently used key of each region
+    private final LinkedHashMap<K, Long> window = new LinkedHashMap<>(16, 0.75f, true);
+    private final LinkedHashMap<K, Long> probation = new LinkedHashMap<>(16, 0.75f, true);
+    private final LinkedHashMap<K, Long> protectedRegion = new LinkedHashMap<>(16, 0.75f, true);
+    private long maximum = 0L;
+    private long windowMaximum = 0L;
+    private long protectedMaximum = 0L;
+    private long windowWeight = 0L;
+    private long probationWeight = 0L;
+    private long protectedWeight = 0L;
+
+    /**
+     * @param maximum Maximum total weight (or number of entries, with a weight of 1 each)
+     */
+    public void setMaximum(long maximum) {
+        if (this.maximum == maximum) {
+            return;
+        }
+        this.maximum = maximum;
+        this.windowMaximum = Math.max(1L, maximum / 100L);
+        this.protectedMaximum = (long) ((maximum - windowMaximum) * PROTECTED_RATIO);
+    }
+
+    public boolean contains(K key) {
+        return window.containsKey(key) || probation.containsKey(key) || protectedRegion.containsKey(key);
+    }
+
+    public void recordAccess(K key) {
+        sketch.increment(key);
+        if (window.get(key) != null || protectedRegion.get(key) != null) {
+            return; // moved to the tail of its region by get()
+        }
+        Long weight = probation.remove(key);
+        if (weight != null) {
+            probationWeight -= weight;
+            protectedRegion.put(key, weight);
+            protectedWeight += weight;
+            while (protectedWeight > protectedMaximum && protectedRegion.size() > 1) {
+                K demoted = firstKey(protectedRegion);
+                long w = protectedRegion.remove(demoted);
+                protectedWeight -= w;
+                probation.put(demoted, w);
+                probationWeight += w;
+            }
+        }
+    }
+
+    /**
+     * Add (or re-weigh) a key
+     * @return Keys that must be evicted to stay within the maximum (possibly including {@param key} itself)
+     */
+    public List<K> add(K key, long weight) {
+        remove(key);
+        sketch.increment(key);
+        window.put(key, weight);
+        windowWeight += weight;
+        sketch.ensureCapacity(size());
+        return evict();
+    }
+
+    public void remove(K key) {
+        Long weight = window.remove(key);
+        if (weight != null) {
+            windowWeight -= weight;
+            return;
+        }
+        weight = probation.remove(key);
+        if (weight != null) {
+            probationWeight -= weight;
+            return;
+        }
+        weight = protectedRegion.remove(key);
+        if (weight != null) {
+            protectedWeight -= weight;
+        }
+    }
+
+    public void clear() {
+        window.clear();
+        probation.clear();
+        protectedRegion.clear();
+        windowWeight = 0L;
+        probationWeight = 0L;
+        protectedWeight = 0L;
+        sketch.clear();
+    }
+
+    public int size() {
+        return window.size() + probation.size() + protectedRegion.size();
+    }
+
+    public long weightedSize() {
+        return windowWeight + probationWeight + protectedWeight;
+    }
+
+    private List<K> evict() {
+        List<K> evicted = new ArrayList<>();
+        while (windowWeight > windowMaximum && window.size() > 1) {
+            K candidate = firstKey(window);
+            long weight = window.remove(candidate);
+            windowWeight -= weight;
+            admit(candidate, weight, evicted);
+        }
+        while (weightedSize() > maximum && size() > 0) {
+            // Only reachable when the window alone exceeds the maximum (i.e. a single very heavy entry)
+            K victim = firstKey(probation.isEmpty() ? (protectedRegion.isEmpty() ? window : protectedRegion) : probation);
+            remove(victim);
+            evicted.add(victim);
+        }
+        return evicted;
+    }
+
+    private void admit(K candidate, long weight, List<K> evicted) {
+        while (weightedSize() + weight > maximum) {
+            K victim = firstKey(probation.isEmpty() ? protectedRegion : probation);
+            if (victim == null) {
+                break;
+            }
+            if (sketch.frequency(candidate) <= sketch.frequency(victim)) {
+                evicted.add(candidate);
+                return;
+            }
+            remove(victim);
+            evicted.add(victim);
+        }
+        probation.put(candidate, weight);
+        probationWeight += weight;
+    }
+
+    private K firstKey(LinkedHashMap<K, Long> region) {
+        Iterator<K> it = region.keySet().iterator();
+        return it.hasNext() ? it.next() : null;
+    }
+
+}
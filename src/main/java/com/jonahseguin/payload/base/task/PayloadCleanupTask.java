@@ -0,0 +1,63 @@
+/*
+ * Copyright (c) 2020 Jonah Seguin.  All rights reserved.  You may not modify, decompile, distribute or use any code/text contained in this document(plugin) without explicit signed permission from Jonah Seguin.
+ * www.jonahseguin.com
+ */
+
+package com.jonahseguin.payload.base.task;
+
+import com.google.common.base.Preconditions;
+import com.jonahseguin.payload.base.Cache;
+import com.jonahseguin.payload.base.type.Payload;
+import org.bukkit.scheduler.BukkitTask;
+
+import javax.annotation.Nonnull;
+
+/**
+ * Periodically evicts expired objects from a cache's local store (see {@link com.jonahseguin.payload.base.store.PayloadStore#cleanup()}),
+ * and discards idle controllers (see {@link Cache#cleanupControllers()})
+ */
+public class PayloadCleanupTask<K, X extends Payload<K>> implements Runnable {
+
+    private final Cache<K, X> cache;
+
+    private BukkitTask task = null;
+
+    public PayloadCleanupTask(@Nonnull Cache<K, X> cache) {
+        Preconditions.checkNotNull(cache);
+        this.cache = cache;
+    }
+
+    @Override
+    public void run() {
+        try {
+            int evicted = cache.getLocalStore().cleanup();
+            if (evicted > 0) {
+                cache.getErrorService().debug("Cleanup evicted " + evicted + " expired objects from the local store.");
+            }
+            int controllers = cache.cleanupControllers();
+            if (controllers > 0) {
+                cache.getErrorService().debug("Cleanup discarded " + controllers + " idle controllers.");
+            }
+        } catch (Exception ex) {
+            cache.getErrorService().capture(ex, "Error during local store cleanup");
+        }
+    }
+
+    public boolean isRunning() {
+        return this.task != null;
+    }
+
+    public void start() {
+        if (!this.isRunning() && cache.getSettings().getCleanupIntervalSeconds() > 0) {
+            this.task = cache.getPlugin().getServer().getScheduler().runTaskTimerAsynchronously(cache.getPlugin(), this, (cache.getSettings().getCleanupIntervalSeconds() * 20), (cache.getSettings().getCleanupIntervalSeconds() * 20));
+        }
+    }
+
+    public void stop() {
+        if (this.isRunning()) {
+            this.task.cancel();
+            this.task = null;
+        }
+    }
+
+}
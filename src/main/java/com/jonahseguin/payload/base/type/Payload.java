@@ -6,6 +6,7 @@
 package com.jonahseguin.payload.base.type;
 
 import com.jonahseguin.payload.base.Cache;
+import com.mongodb.DBObject;
 import org.bson.types.ObjectId;
 
 import javax.annotation.Nonnull;
@@ -80,4 +81,19 @@ public interface Payload<K> {
 
     void onReceiveUpdate();
 
+    /**
+     * Internal: the document this object was last loaded or saved as (encoded BSON), kept with
+     * {@link com.jonahseguin.payload.base.settings.CacheSettings#isPartialUpdates()} to find what changed since
+     * @return The snapshot, or null if there is none
+     */
+    byte[] getSnapshot();
+
+    void setSnapshot(byte[] snapshot);
+
+    /**
+     * Internal: called with the document this object was just loaded or saved as
+     * @param document The document
+     */
+    void markPersisted(@Nonnull DBObject document);
+
 }
@@ -89,6 +89,8 @@ public class PayloadUpdater<K, X extends Payload<K>> implements Service {
                     if (!sourceServerString.equalsIgnoreCase(database.getServerService().getThisServer().getName())) {
                         // As long as the source server wasn't us
                         final K identifier = cache.keyFromString(identifierString);
+                        // A copy in the cold tier isn't refreshed below, so drop it rather than restore it stale later
+                        cache.getLocalStore().invalidate(identifier);
                         if (cache.isCached(identifier) || force) {
                             cache.runAsync(() -> cache.getFromDatabase(identifier).ifPresent(payload -> {
                                 cache.cache(payload);
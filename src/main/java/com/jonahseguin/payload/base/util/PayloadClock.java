@@ -0,0 +1,51 @@
+/*
+ * Copyright (c) 2020 Jonah Seguin.  All rights reserved.  You may not modify, decompile, distribute or use any code/text contained in this document(plugin) without explicit signed permission from Jonah Seguin.
+ * www.jonahseguin.com
+ */
+
+package com.jonahseguin.payload.base.util;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A coarse wall clock for interaction timestamps on the cache hit path, updated every {@link #RESOLUTION_MILLIS}ms by a
+ * background thread so that reading it is a single volatile read.
+ * Falls back to {@link System#currentTimeMillis()} while not running (started/stopped with the Payload plugin).
+ */
+public final class PayloadClock {
+
+    public static final long RESOLUTION_MILLIS = 10L;
+
+    private static volatile long now = System.currentTimeMillis();
+    private static volatile ScheduledExecutorService ticker = null;
+
+    private PayloadClock() {
+    }
+
+    public static long currentTimeMillis() {
+        return ticker != null ? now : System.currentTimeMillis();
+    }
+
+    public static synchronized void start() {
+        if (ticker == null) {
+            now = System.currentTimeMillis();
+            ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread thread = new Thread(r, "Payload Clock");
+                thread.setDaemon(true);
+                return thread;
+            });
+            executor.scheduleAtFixedRate(() -> now = System.currentTimeMillis(), RESOLUTION_MILLIS, RESOLUTION_MILLIS, TimeUnit.MILLISECONDS);
+            ticker = executor;
+        }
+    }
+
+    public static synchronized void stop() {
+        if (ticker != null) {
+            ticker.shutdownNow();
+            ticker = null;
+        }
+    }
+
+}
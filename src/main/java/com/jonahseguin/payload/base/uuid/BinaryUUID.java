@@ -0,0 +1,91 @@
+/*
+ * Copyright (c) 2020 Jonah Seguin.  All rights reserved.  You may not modify, decompile, distribute or use any code/text contained in this document(plugin) without explicit signed permission from Jonah Seguin.
+ * www.jonahseguin.com
+ */
+
+package com.jonahseguin.payload.base.uuid;
+
+import com.google.common.base.Preconditions;
+import org.bson.BsonBinarySubType;
+import org.bson.types.Binary;
+
+import javax.annotation.Nonnull;
+import java.util.UUID;
+
+/**
+ * Conversions between UUIDs and their 16 byte (big-endian, RFC 4122) binary form, which is how
+ * {@link com.jonahseguin.payload.mode.profile.settings.ProfileCacheSettings#isBinaryUuids()} stores them:
+ * as BSON binary subtype 4 in MongoDB and as raw 16 byte hash fields in Redis.
+ */
+public final class BinaryUUID {
+
+    public static final int BYTES = 16;
+
+    private BinaryUUID() {
+    }
+
+    @Nonnull
+    public static byte[] toBytes(@Nonnull UUID uuid) {
+        Preconditions.checkNotNull(uuid);
+        byte[] bytes = new byte[BYTES];
+        putLong(bytes, 0, uuid.getMostSignificantBits());
+        putLong(bytes, 8, uuid.getLeastSignificantBits());
+        return bytes;
+    }
+
+    @Nonnull
+    public static UUID fromBytes(@Nonnull byte[] bytes) {
+        Preconditions.checkNotNull(bytes);
+        Preconditions.checkArgument(bytes.length == BYTES, "A binary UUID must be 16 bytes, got " + bytes.length);
+        return new UUID(getLong(bytes, 0), getLong(bytes, 8));
+    }
+
+    /**
+     * @return The UUID as BSON binary subtype 4 (standard)
+     */
+    @Nonnull
+    public static Binary toBinary(@Nonnull UUID uuid) {
+        return new Binary(BsonBinarySubType.UUID_STANDARD.getValue(), toBytes(uuid));
+    }
+
+    /**
+     * Read a UUID stored in any of the forms Payload has written it in
+     * @param value A string, {@link UUID} (as decoded by the driver), subtype 4 {@link Binary} or 16 byte array
+     * @return The UUID, or null if the value isn't one
+     */
+    public static UUID read(Object value) {
+        if (value instanceof UUID) {
+            return (UUID) value;
+        } else if (value instanceof String) {
+            try {
+                return UUID.fromString((String) value);
+            } catch (IllegalArgumentException ex) {
+                return null;
+            }
+        } else if (value instanceof Binary) {
+            Binary binary = (Binary) value;
+            if (binary.getType() == BsonBinarySubType.UUID_STANDARD.getValue() && binary.length() == BYTES) {
+                return fromBytes(binary.getData());
+            }
+        } else if (value instanceof byte[] && ((byte[]) value).length == BYTES) {
+            return fromBytes((byte[]) value);
+        }
+        return null;
+    }
+
+    private static void putLong(byte[] bytes, int offset, long value) {
+        for (int i = 7; i >= 0; i--) {
+            bytes[offset + i] = (byte) value;
+            value >>>= 8;
+        }
+    }
+
+    private static long getLong(byte[] bytes, int offset) {
+        long value = 0;
+        for (int i = 0; i < 8; i++) {
+            value = (value << 8) | (bytes[offset + i] & 0xFF);
+        }
+        return value;
+    }
+
+}
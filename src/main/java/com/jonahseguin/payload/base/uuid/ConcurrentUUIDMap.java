@@ -0,0 +1,479 @@
+/*
+ * Copyright (c) 2020 Jonah Seguin.  All rights reserved.  You may not modify, decompile, distribute or use any code/text contained in this document(plugin) without explicit signed permission from Jonah Seguin.
+ * www.jonahseguin.com
+ */
+
+package com.jonahseguin.payload.base.uuid;
+
+import com.google.common.base.Preconditions;
+
+import javax.annotation.Nonnull;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * A concurrent map keyed by UUID, stored as the UUID's two longs in open-addressing (linear probing) tables, so entries
+ * cost no node objects and keys aren't retained as UUID objects.
+ * The map is split into segments, each guarded by a {@link StampedLock}: reads are optimistic (lock-free unless they race
+ * a write to the same segment), writes take the segment's write lock.  Iteration is weakly consistent, over a per-segment snapshot.
+ * Null keys and values are not permitted.
+ * @param <V> Value type
+ */
+public class ConcurrentUUIDMap<V> extends AbstractMap<UUID, V> implements ConcurrentMap<UUID, V> {
+
+    private static final int SEGMENT_BITS = 4;
+    private static final int SEGMENTS = 1 << SEGMENT_BITS;
+    private static final int MIN_SEGMENT_CAPACITY = 8;
+    private static final float LOAD_FACTOR = 0.7F;
+
+    private final Segment<V>[] segments;
+    private transient Set<Map.Entry<UUID, V>> entrySet = null;
+
+    public ConcurrentUUIDMap() {
+        this(SEGMENTS * MIN_SEGMENT_CAPACITY);
+    }
+
+    @SuppressWarnings("unchecked")
+    public ConcurrentUUIDMap(int initialCapacity) {
+        Preconditions.checkArgument(initialCapacity >= 0, "Initial capacity must be >= 0");
+        int perSegment = (int) Math.ceil((initialCapacity / (double) SEGMENTS) / LOAD_FACTOR);
+        int capacity = MIN_SEGMENT_CAPACITY;
+        while (capacity < perSegment) {
+            capacity <<= 1;
+        }
+        this.segments = new Segment[SEGMENTS];
+        for (int i = 0; i < SEGMENTS; i++) {
+            this.segments[i] = new Segment<>(capacity);
+        }
+    }
+
+    static long hash(long msb, long lsb) {
+        long h = (msb * 0x9E3779B97F4A7C15L) ^ lsb;
+        h ^= h >>> 33;
+        h *= 0xFF51AFD7ED558CCDL;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    private Segment<V> segmentFor(long hash) {
+        return segments[(int) (hash >>> (64 - SEGMENT_BITS))];
+    }
+
+    public V get(long msb, long lsb) {
+        long h = hash(msb, lsb);
+        return segmentFor(h).get(msb, lsb, h);
+    }
+
+    @Override
+    public V get(Object key) {
+        if (!(key instanceof UUID)) {
+            return null;
+        }
+        UUID uuid = (UUID) key;
+        return get(uuid.getMostSignificantBits(), uuid.getLeastSignificantBits());
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return get(key) != null;
+    }
+
+    @Override
+    public V put(@Nonnull UUID key, @Nonnull V value) {
+        Preconditions.checkNotNull(key);
+        Preconditions.checkNotNull(value);
+        long msb = key.getMostSignificantBits(), lsb = key.getLeastSignificantBits();
+        long h = hash(msb, lsb);
+        return segmentFor(h).put(msb, lsb, h, value, false);
+    }
+
+    @Override
+    public V putIfAbsent(@Nonnull UUID key, @Nonnull V value) {
+        Preconditions.checkNotNull(key);
+        Preconditions.checkNotNull(value);
+        long msb = key.getMostSignificantBits(), lsb = key.getLeastSignificantBits();
+        long h = hash(msb, lsb);
+        return segmentFor(h).put(msb, lsb, h, value, true);
+    }
+
+    @Override
+    public V remove(Object key) {
+        if (!(key instanceof UUID)) {
+            return null;
+        }
+        UUID uuid = (UUID) key;
+        long msb = uuid.getMostSignificantBits(), lsb = uuid.getLeastSignificantBits();
+        long h = hash(msb, lsb);
+        return segmentFor(h).remove(msb, lsb, h, null);
+    }
+
+    @Override
+    public boolean remove(Object key, Object value) {
+        if (!(key instanceof UUID) || value == null) {
+            return false;
+        }
+        UUID uuid = (UUID) key;
+        long msb = uuid.getMostSignificantBits(), lsb = uuid.getLeastSignificantBits();
+        long h = hash(msb, lsb);
+        return segmentFor(h).remove(msb, lsb, h, value) != null;
+    }
+
+    @Override
+    public boolean replace(@Nonnull UUID key, @Nonnull V oldValue, @Nonnull V newValue) {
+        Preconditions.checkNotNull(key);
+        Preconditions.checkNotNull(oldValue);
+        Preconditions.checkNotNull(newValue);
+        long msb = key.getMostSignificantBits(), lsb = key.getLeastSignificantBits();
+        long h = hash(msb, lsb);
+        return segmentFor(h).replace(msb, lsb, h, oldValue, newValue) != null;
+    }
+
+    @Override
+    public V replace(@Nonnull UUID key, @Nonnull V value) {
+        Preconditions.checkNotNull(key);
+        Preconditions.checkNotNull(value);
+        long msb = key.getMostSignificantBits(), lsb = key.getLeastSignificantBits();
+        long h = hash(msb, lsb);
+        return segmentFor(h).replace(msb, lsb, h, null, value);
+    }
+
+    @Override
+    public int size() {
+        long size = 0;
+        for (Segment<V> segment : segments) {
+            size += segment.size;
+        }
+        return (int) Math.min(size, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public boolean isEmpty() {
+        for (Segment<V> segment : segments) {
+            if (segment.size > 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public void clear() {
+        for (Segment<V> segment : segments) {
+            segment.clear();
+        }
+    }
+
+    /**
+     * @return Number of slots allocated across all segments (for memory diagnostics)
+     */
+    public long capacity() {
+        long capacity = 0;
+        for (Segment<V> segment : segments) {
+            capacity += segment.table.values.length;
+        }
+        return capacity;
+    }
+
+    @Nonnull
+    @Override
+    public Set<Map.Entry<UUID, V>> entrySet() {
+        Set<Map.Entry<UUID, V>> es = entrySet;
+        if (es == null) {
+            es = entrySet = new EntrySet();
+        }
+        return es;
+    }
+
+    private final class EntrySet extends AbstractSet<Map.Entry<UUID, V>> {
+        @Nonnull
+        @Override
+        public Iterator<Map.Entry<UUID, V>> iterator() {
+            return new EntryIterator();
+        }
+
+        @Override
+        public int size() {
+            return ConcurrentUUIDMap.this.size();
+        }
+
+        @Override
+        public boolean contains(Object o) {
+            if (!(o instanceof Map.Entry)) {
+                return false;
+            }
+            Map.Entry<?, ?> e = (Map.Entry<?, ?>) o;
+            V v = ConcurrentUUIDMap.this.get(e.getKey());
+            return v != null && v.equals(e.getValue());
+        }
+
+        @Override
+        public boolean remove(Object o) {
+            if (!(o instanceof Map.Entry)) {
+                return false;
+            }
+            Map.Entry<?, ?> e = (Map.Entry<?, ?>) o;
+            return ConcurrentUUIDMap.this.remove(e.getKey(), e.getValue());
+        }
+
+        @Override
+        public void clear() {
+            ConcurrentUUIDMap.this.clear();
+        }
+    }
+
+    private final class EntryIterator implements Iterator<Map.Entry<UUID, V>> {
+        private int segment = 0;
+        private List<Map.Entry<UUID, V>> snapshot = null;
+        private int index = 0;
+        private Map.Entry<UUID, V> last = null;
+
+        @Override
+        public boolean hasNext() {
+            while (snapshot == null || index >= snapshot.size()) {
+                if (segment >= SEGMENTS) {
+                    return false;
+                }
+                snapshot = segments[segment++].snapshot();
+                index = 0;
+            }
+            return true;
+        }
+
+        @Override
+        public Map.Entry<UUID, V> next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            return last = snapshot.get(index++);
+        }
+
+        @Override
+        public void remove() {
+            Preconditions.checkState(last != null);
+            ConcurrentUUIDMap.this.remove(last.getKey());
+            last = null;
+        }
+    }
+
+    private static final class Table {
+        private final long[] keys; // most/least significant bits of the key in each slot, interleaved
+        private final Object[] values; // null for an empty slot
+
+        private Table(int capacity) {
+            this.keys = new long[capacity << 1];
+            this.values = new Object[capacity];
+        }
+    }
+
+    private static final class Segment<V> {
+        private final StampedLock lock = new StampedLock();
+        private final int initialCapacity;
+        private Table table;
+        private volatile int size = 0;
+
+        private Segment(int capacity) {
+            this.initialCapacity = capacity;
+            this.table = new Table(capacity);
+        }
+
+        @SuppressWarnings("unchecked")
+        private V get(long msb, long lsb, long h) {
+            long stamp = lock.tryOptimisticRead();
+            if (stamp != 0L) {
+                Object v = find(table, msb, lsb, h);
+                if (lock.validate(stamp)) {
+                    return (V) v;
+                }
+            }
+            stamp = lock.readLock();
+            try {
+                return (V) find(table, msb, lsb, h);
+            } finally {
+                lock.unlockRead(stamp);
+            }
+        }
+
+        private static Object find(Table t, long msb, long lsb, long h) {
+            long[] keys = t.keys;
+            Object[] values = t.values;
+            int mask = values.length - 1;
+            int i = (int) h & mask;
+            // Bounded, since an optimistic read may observe the table mid-write
+            for (int probes = 0; probes <= mask; probes++) {
+                Object v = values[i];
+                if (v == null) {
+                    return null;
+                }
+                if (keys[i << 1] == msb && keys[(i << 1) + 1] == lsb) {
+                    return v;
+                }
+                i = (i + 1) & mask;
+            }
+            return null;
+        }
+
+        private static int slot(Table t, long msb, long lsb, long h) {
+            long[] keys = t.keys;
+            Object[] values = t.values;
+            int mask = values.length - 1;
+            int i = (int) h & mask;
+            while (values[i] != null) {
+                if (keys[i << 1] == msb && keys[(i << 1) + 1] == lsb) {
+                    return i;
+                }
+                i = (i + 1) & mask;
+            }
+            return -1 - i; // not found; encodes the empty slot it would go in
+        }
+
+        @SuppressWarnings("unchecked")
+        private V put(long msb, long lsb, long h, V value, boolean onlyIfAbsent) {
+            long stamp = lock.writeLock();
+            try {
+                Table t = table;
+                int i = slot(t, msb, lsb, h);
+                if (i >= 0) {
+                    Object old = t.values[i];
+                    if (!onlyIfAbsent) {
+                        t.values[i] = value;
+                    }
+                    return (V) old;
+                }
+                i = -1 - i;
+                t.keys[i << 1] = msb;
+                t.keys[(i << 1) + 1] = lsb;
+                t.values[i] = value;
+                size = size + 1;
+                if (size > t.values.length * LOAD_FACTOR) {
+                    resize(t.values.length << 1);
+                }
+                return null;
+            } finally {
+                lock.unlockWrite(stamp);
+            }
+        }
+
+        @SuppressWarnings("unchecked")
+        private V replace(long msb, long lsb, long h, Object expected, V value) {
+            long stamp = lock.writeLock();
+            try {
+                Table t = table;
+                int i = slot(t, msb, lsb, h);
+                if (i < 0) {
+                    return null;
+                }
+                Object old = t.values[i];
+                if (expected != null && !expected.equals(old)) {
+                    return null;
+                }
+                t.values[i] = value;
+                return (V) old;
+            } finally {
+                lock.unlockWrite(stamp);
+            }
+        }
+
+        @SuppressWarnings("unchecked")
+        private V remove(long msb, long lsb, long h, Object expected) {
+            long stamp = lock.writeLock();
+            try {
+                Table t = table;
+                int i = slot(t, msb, lsb, h);
+                if (i < 0) {
+                    return null;
+                }
+                Object old = t.values[i];
+                if (expected != null && !expected.equals(old)) {
+                    return null;
+                }
+                delete(t, i);
+                size = size - 1;
+                return (V) old;
+            } finally {
+                lock.unlockWrite(stamp);
+            }
+        }
+
+        /**
+         * Backward-shift deletion: move later entries of the probe run into the hole, so lookups never need tombstones
+         */
+        private static void delete(Table t, int hole) {
+            long[] keys = t.keys;
+            Object[] values = t.values;
+            int mask = values.length - 1;
+            int j = hole;
+            while (true) {
+                j = (j + 1) & mask;
+                if (values[j] == null) {
+                    break;
+                }
+                int ideal = (int) hash(keys[j << 1], keys[(j << 1) + 1]) & mask;
+                if (((j - ideal) & mask) >= ((j - hole) & mask)) {
+                    keys[hole << 1] = keys[j << 1];
+                    keys[(hole << 1) + 1] = keys[(j << 1) + 1];
+                    values[hole] = values[j];
+                    hole = j;
+                }
+            }
+            values[hole] = null;
+        }
+
+        private void resize(int capacity) {
+            Table old = table;
+            Table t = new Table(capacity);
+            int mask = capacity - 1;
+            for (int i = 0; i < old.values.length; i++) {
+                Object v = old.values[i];
+                if (v != null) {
+                    long msb = old.keys[i << 1], lsb = old.keys[(i << 1) + 1];
+                    int j = (int) hash(msb, lsb) & mask;
+                    while (t.values[j] != null) {
+                        j = (j + 1) & mask;
+                    }
+                    t.keys[j << 1] = msb;
+                    t.keys[(j << 1) + 1] = lsb;
+                    t.values[j] = v;
+                }
+            }
+            table = t;
+        }
+
+        private void clear() {
+            long stamp = lock.writeLock();
+            try {
+                table = new Table(initialCapacity);
+                size = 0;
+            } finally {
+                lock.unlockWrite(stamp);
+            }
+        }
+
+        @SuppressWarnings("unchecked")
+        private List<Map.Entry<UUID, V>> snapshot() {
+            long stamp = lock.readLock();
+            try {
+                Table t = table;
+                List<Map.Entry<UUID, V>> entries = new ArrayList<>(size);
+                for (int i = 0; i < t.values.length; i++) {
+                    Object v = t.values[i];
+                    if (v != null) {
+                        entries.add(new AbstractMap.SimpleImmutableEntry<>(new UUID(t.keys[i << 1], t.keys[(i << 1) + 1]), (V) v));
+                    }
+                }
+                return entries;
+            } finally {
+                lock.unlockRead(stamp);
+            }
+        }
+    }
+
+}
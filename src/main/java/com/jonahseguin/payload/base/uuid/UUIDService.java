@@ -14,6 +14,7 @@ import com.jonahseguin.payload.PayloadPlugin;
 import org.bukkit.OfflinePlayer;
 
 import javax.annotation.Nonnull;
+import java.util.Locale;
 import java.util.Optional;
 import java.util.UUID;
 
@@ -32,12 +33,12 @@ public class UUIDService {
     public void save(@Nonnull UUID uuid, @Nonnull String name) {
         Preconditions.checkNotNull(uuid);
         Preconditions.checkNotNull(name);
-        cache.put(uuid, name.toLowerCase());
+        cache.put(uuid, name.toLowerCase(Locale.ROOT));
     }
 
     public Optional<UUID> get(@Nonnull String name) {
         Preconditions.checkNotNull(name);
-        return Optional.ofNullable(cache.inverse().get(name.toLowerCase()));
+        return Optional.ofNullable(cache.inverse().get(name.toLowerCase(Locale.ROOT)));
     }
 
     public Optional<String> get(@Nonnull UUID uuid) {
@@ -50,6 +50,8 @@ public class PCommandHandler implements CommandExecutor {
         register(injector.getInstance(CmdDatabaseList.class));
         register(injector.getInstance(CmdDatabase.class));
         register(injector.getInstance(CmdServers.class));
+        register(injector.getInstance(CmdLoginStats.class));
+        register(injector.getInstance(CmdMemory.class));
     }
 
     private void register(PayloadCommand cmd) {
@@ -10,8 +10,12 @@ import com.jonahseguin.payload.PayloadAPI;
 import com.jonahseguin.payload.base.Cache;
 import com.jonahseguin.payload.base.PayloadCache;
 import com.jonahseguin.payload.base.PayloadPermission;
+import com.jonahseguin.payload.base.store.ColdStore;
 import com.jonahseguin.payload.command.CmdArgs;
 import com.jonahseguin.payload.command.PayloadCommand;
+import com.jonahseguin.payload.mode.object.PayloadObjectCache;
+import com.jonahseguin.payload.mode.object.store.ObjectStoreLocal;
+import com.jonahseguin.payload.mode.profile.PayloadProfileCache;
 
 public class CmdCache implements PayloadCommand {
 
@@ -34,6 +38,19 @@ public class CmdCache implements PayloadCommand {
         args.msg("&7***** &6Payload Cache: {0} &7*****", cacheName);
         args.msg("&7{0} objects currently cached", cache.cachedObjectCount() + "");
         args.msg("&7Current State: {0}", cache.isRunning() ? "&aRunning" : "&cNot running");
+        args.msg("&7{0} controllers", cache.controllerCount() + "");
+        if (cache instanceof PayloadObjectCache) {
+            ObjectStoreLocal local = ((PayloadObjectCache) cache).getLocalStore();
+            args.msg("&7Local Store: &6{0} &7hits, &6{1} &7misses, &6{2} &7evictions{3}", local.getHits().sum() + "", local.getMisses().sum() + "",
+                    local.getEvictions().sum() + "", local.isBounded() ? "" : " &7(unbounded)");
+        }
+        ColdStore cold = cache instanceof PayloadObjectCache ? ((PayloadObjectCache) cache).getLocalStore().getColdStore()
+                : cache instanceof PayloadProfileCache ? ((PayloadProfileCache) cache).getLocalStore().getColdStore() : null;
+        if (cold != null && cold.isEnabled()) {
+            args.msg("&7Cold Tier: &6{0} &7objects, &6{1}&7/&6{2} &7bytes, &6{3} &7hits, &6{4} &7misses, &6{5} &7evictions, &6{6} &7failures", cold.size() + "",
+                    cold.getBytes() + "", cache.getSettings().getColdTierMaxBytes() + "", cold.getHits().sum() + "", cold.getMisses().sum() + "",
+                    cold.getEvictions().sum() + "", cold.getFailures().sum() + "");
+        }
         if (cache.getDatabase() != null) {
             if (cache.requireMongoDb()) {
                 args.msg("&7MongoDB Status: {0} &7(Init: {1}&7)", (cache.getDatabase().getState().isMongoConnected() ? "&aConnected" : "&cDisconnected"), (cache.getDatabase().getState().isMongoInitConnect() ? "&aYes" : "&cNo"));
@@ -0,0 +1,108 @@
+/*
+ * Copyright (c) 2020 Jonah Seguin.  All rights reserved.  You may not modify, decompile, distribute or use any code/text contained in this document(plugin) without explicit signed permission from Jonah Seguin.
+ * www.jonahseguin.com
+ */
+
+package com.jonahseguin.payload.command.commands;
+
+import com.google.inject.Inject;
+import com.jonahseguin.payload.PayloadAPI;
+import com.jonahseguin.payload.base.Cache;
+import com.jonahseguin.payload.base.PayloadPermission;
+import com.jonahseguin.payload.base.metrics.LatencyHistogram;
+import com.jonahseguin.payload.command.CmdArgs;
+import com.jonahseguin.payload.command.PayloadCommand;
+import com.jonahseguin.payload.mode.profile.ProfileCache;
+import com.jonahseguin.payload.mode.profile.admission.LoginAdmission;
+import com.jonahseguin.payload.mode.profile.stats.LoginStage;
+import com.jonahseguin.payload.mode.profile.stats.ProfileLoginStats;
+
+public class CmdLoginStats implements PayloadCommand {
+
+    private final PayloadAPI api;
+
+    @Inject
+    public CmdLoginStats(PayloadAPI api) {
+        this.api = api;
+    }
+
+    @Override
+    public void execute(CmdArgs args) {
+        boolean reset = args.length() > 1 && args.arg(args.length() - 1).equalsIgnoreCase("reset");
+        String cacheName = reset ? args.joinArgs(0, args.length() - 1) : args.joinArgs();
+        Cache cache = api.getCache(cacheName);
+        if (cache == null) {
+            args.msg("&cA cache with the name '{0}' does not exist.  Type /payload caches for a list of caches.", cacheName);
+            return;
+        }
+        if (!(cache instanceof ProfileCache)) {
+            args.msg("&cPayload: The '{0}' cache is not a profile cache.", cache.getName());
+            return;
+        }
+        ProfileLoginStats stats = ((ProfileCache) cache).getLoginStats();
+        LoginAdmission admission = ((ProfileCache) cache).getLoginAdmission();
+        if (reset) {
+            stats.reset();
+            admission.getWaitTime().reset();
+            args.msg("&7Reset login stats for cache &6{0}", cache.getName());
+            return;
+        }
+
+        args.msg("&7***** &6Payload Login Stats: {0} &7*****", cache.getName());
+        args.msg("&7{0} logins recorded", stats.getLoginCount() + "");
+        for (LoginStage stage : LoginStage.values()) {
+            LatencyHistogram histogram = stats.getHistogram(stage);
+            if (histogram.getCount() > 0) {
+                args.msg("&7- &e{0}&7: p50 &6{1} &7p95 &6{2} &7p99 &6{3} &7max &6{4} &7({5})", stage.getDisplayName(),
+                        LatencyHistogram.formatMillis(histogram.getPercentile(50)),
+                        LatencyHistogram.formatMillis(histogram.getPercentile(95)),
+                        LatencyHistogram.formatMillis(histogram.getPercentile(99)),
+                        LatencyHistogram.formatMillis(histogram.getMax()),
+                        histogram.getCount() + "");
+            }
+        }
+        LatencyHistogram wait = admission.getWaitTime();
+        args.msg("&7Admission: &6{0} &7loading, &6{1} &7queued, &6{2} &7admitted, &6{3} &7rejected", admission.getLoading() + "",
+                admission.getQueueDepth() + "", admission.getAdmitted().get() + "", admission.getRejected().get() + "");
+        args.msg("&7- &eQueue Wait&7: p50 &6{0} &7p95 &6{1} &7p99 &6{2} &7max &6{3}",
+                LatencyHistogram.formatMillis(wait.getPercentile(50)),
+                LatencyHistogram.formatMillis(wait.getPercentile(95)),
+                LatencyHistogram.formatMillis(wait.getPercentile(99)),
+                LatencyHistogram.formatMillis(wait.getMax()));
+    }
+
+    @Override
+    public String name() {
+        return "loginstats";
+    }
+
+    @Override
+    public String[] aliases() {
+        return new String[]{"ls", "login-stats", "logins"};
+    }
+
+    @Override
+    public String desc() {
+        return "View login latency per stage for a profile cache";
+    }
+
+    @Override
+    public PayloadPermission permission() {
+        return PayloadPermission.ADMIN;
+    }
+
+    @Override
+    public String usage() {
+        return "<cache name> [reset]";
+    }
+
+    @Override
+    public boolean playerOnly() {
+        return false;
+    }
+
+    @Override
+    public int minArgs() {
+        return 1;
+    }
+}
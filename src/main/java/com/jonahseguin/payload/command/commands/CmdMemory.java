@@ -0,0 +1,96 @@
+/*
+ * Copyright (c) 2020 Jonah Seguin.  All rights reserved.  You may not modify, decompile, distribute or use any code/text contained in this document(plugin) without explicit signed permission from Jonah Seguin.
+ * www.jonahseguin.com
+ */
+
+package com.jonahseguin.payload.command.commands;
+
+import com.google.inject.Inject;
+import com.jonahseguin.payload.PayloadAPI;
+import com.jonahseguin.payload.base.Cache;
+import com.jonahseguin.payload.base.PayloadPermission;
+import com.jonahseguin.payload.base.memory.MemoryGovernor;
+import com.jonahseguin.payload.command.CmdArgs;
+import com.jonahseguin.payload.command.PayloadCommand;
+
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryUsage;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+
+public class CmdMemory implements PayloadCommand {
+
+    private final PayloadAPI api;
+
+    @Inject
+    public CmdMemory(PayloadAPI api) {
+        this.api = api;
+    }
+
+    @Override
+    public void execute(CmdArgs args) {
+        MemoryGovernor governor = api.getMemoryGovernor();
+        boolean resample = args.length() > 0 && args.arg(0).equalsIgnoreCase("sample");
+        args.msg("&7***** &6Payload Memory &7*****");
+        MemoryPoolMXBean pool = governor.getPool();
+        if (pool != null) {
+            MemoryUsage usage = MemoryGovernor.currentUsage(pool);
+            args.msg("&7{0}: &6{1} &7/ &6{2} &7({3}%), pressure at {4}%", pool.getName(), formatBytes(usage.getUsed()), formatBytes(usage.getMax()),
+                    MemoryGovernor.percent(usage) + "", ((int) (governor.getPressureThreshold() * 100)) + "");
+        } else {
+            args.msg("&cMemory governor is not running");
+        }
+        args.msg("&7Eviction: {0}&7, &6{1} &7pressure events, &6{2} &7objects evicted{3}", governor.isEnabled() ? "&aEnabled" : "&cDisabled",
+                governor.getPressureEvents().get() + "", governor.getEvicted().get() + "",
+                governor.getLastRelief() > 0 ? " &7(last: " + governor.getLastReliefEvicted() + " at " + new SimpleDateFormat("HH:mm:ss").format(new Date(governor.getLastRelief())) + ")" : "");
+        for (Cache cache : api.getSortedCachesByDepends()) {
+            MemoryGovernor.Footprint footprint = governor.getFootprint(cache, resample);
+            args.msg("&7- &e{0}&7: ~&6{1} &7({2} objects, ~{3} each, priority {4})", cache.getName(), formatBytes(footprint.getEstimatedBytes()),
+                    footprint.getCount() + "", formatBytes(footprint.getBytesPerObject()), cache.getSettings().getMemoryPriority() + "");
+        }
+    }
+
+    private static String formatBytes(long bytes) {
+        if (bytes >= 1024L * 1024L) {
+            return String.format("%.1fMB", bytes / (1024D * 1024D));
+        } else if (bytes >= 1024L) {
+            return String.format("%.1fKB", bytes / 1024D);
+        }
+        return bytes + "B";
+    }
+
+    @Override
+    public String name() {
+        return "memory";
+    }
+
+    @Override
+    public String[] aliases() {
+        return new String[]{"mem", "footprint"};
+    }
+
+    @Override
+    public String desc() {
+        return "View estimated memory use per cache";
+    }
+
+    @Override
+    public PayloadPermission permission() {
+        return PayloadPermission.ADMIN;
+    }
+
+    @Override
+    public String usage() {
+        return "[sample]";
+    }
+
+    @Override
+    public boolean playerOnly() {
+        return false;
+    }
+
+    @Override
+    public int minArgs() {
+        return 0;
+    }
+}
@@ -56,6 +56,7 @@ public class CmdProfile implements PayloadCommand {
                 args.msg("&7Last Save Status: {0}", (profile.isSaveFailed() ? "&cFailed" : "&aSuccessful"));
                 args.msg("&7Loading Source: &6{0}", profile.getLoadingSource());
                 args.msg("&7Login IP: {0}", (profile.getLoginIp() != null ? "&6" + profile.getLoginIp() : "&cN/A"));
+                args.msg("&7Version: &6{0} &7(saved: &6{1}&7)", profile.getVersion(), profile.getSavedVersion());
                 Optional<NetworkProfile> onp = pc.getNetworked(profile);
                 if (onp.isPresent()) {
                     NetworkProfile np = onp.get();
@@ -64,6 +65,7 @@ public class CmdProfile implements PayloadCommand {
                     args.msg("&7Last Seen On: &6{0}", np.getLastSeenServer() != null ? np.getLastSeenServer() : "&cN/A");
                     args.msg("&7Last Seen At: &6{0}", np.getLastSeen() > 0 ? formatDateTime(np.getLastSeen()) : "&cN/A");
                     args.msg("&7Last Saved: &6{0}", np.getLastSaved() > 0 ? formatDateTime(np.getLastSaved()) : "&cN/A");
+                    args.msg("&7Stored Copy Current: {0} &7(version &6{1}&7, saved &6{2}&7)", (np.isStoredCopyCurrent() ? "&aYes" : "&cNo"), np.getVersion(), np.getLastSavedVersion());
                     args.msg("&7Last Cached: &6{0}", np.getLastCached() > 0 ? formatDateTime(np.getLastCached()) : "&cN/A");
                 }
             } else {
@@ -7,12 +7,19 @@ package com.jonahseguin.payload.command.commands;
 
 import com.google.inject.Inject;
 import com.jonahseguin.payload.PayloadAPI;
+import com.jonahseguin.payload.PayloadMode;
+import com.jonahseguin.payload.base.Cache;
 import com.jonahseguin.payload.base.PayloadPermission;
+import com.jonahseguin.payload.base.metrics.LatencyHistogram;
 import com.jonahseguin.payload.command.CmdArgs;
 import com.jonahseguin.payload.command.PayloadCommand;
 import com.jonahseguin.payload.database.PayloadDatabase;
+import com.jonahseguin.payload.mode.profile.PayloadProfileCache;
+import com.jonahseguin.payload.mode.profile.handshake.HandshakeBreaker;
 import com.jonahseguin.payload.server.PayloadServer;
 
+import java.util.Optional;
+
 public class CmdServers implements PayloadCommand {
 
     private final PayloadAPI api;
@@ -34,6 +41,32 @@ public class CmdServers implements PayloadCommand {
         args.msg("&7***** &6Payload Servers in Database: {0} &7*****", database.getName());
         for (PayloadServer server : database.getServerService().getServers()) {
             args.msg("&7- &e{0} &7- {1} &7- Last pinged &6{2}", server.getName(), (server.isOnline() ? "&aOnline" : "&cOffline"), convertPing(server.getLastPing()));
+            for (Cache cache : api.getCaches().values()) {
+                if (cache instanceof PayloadProfileCache && cache.getMode().equals(PayloadMode.NETWORK_NODE) && cache.getDatabase().getName().equalsIgnoreCase(database.getName())) {
+                    PayloadProfileCache pc = (PayloadProfileCache) cache;
+                    Optional<HandshakeBreaker> o = pc.getHandshakeService().getBreaker(server.getName());
+                    if (o.isPresent()) {
+                        HandshakeBreaker breaker = o.get();
+                        args.msg("&7    Handshakes ({0}): {1} &7- p99 &6{2} &7- timeout &6{3}ms &7- timeouts &6{4} &7- skipped &6{5}", cache.getName(),
+                                convertState(breaker.getState()),
+                                LatencyHistogram.formatMillis(breaker.getRoundTrip().getPercentile(99)),
+                                pc.getHandshakeService().getTimeoutMillis(server) + "",
+                                breaker.getTimeouts().get() + "",
+                                breaker.getSkipped().get() + "");
+                    }
+                }
+            }
+        }
+    }
+
+    private String convertState(HandshakeBreaker.State state) {
+        switch (state) {
+            case OPEN:
+                return "&cBreaker Open";
+            case HALF_OPEN:
+                return "&eBreaker Half-Open";
+            default:
+                return "&aBreaker Closed";
         }
     }
 
@@ -33,6 +33,8 @@ public interface DatabaseService extends Service {
 
     StatefulRedisConnection<String, String> getRedis();
 
+    StatefulRedisConnection<byte[], byte[]> getRedisBinary();
+
     StatefulRedisPubSubConnection<String, String> getRedisPubSub();
 
     ServerService getServerService();
@@ -59,6 +59,8 @@ public interface PayloadDatabase {
 
     StatefulRedisConnection<String, String> getRedis();
 
+    StatefulRedisConnection<byte[], byte[]> getRedisBinary();
+
     StatefulRedisPubSubConnection<String, String> getRedisPubSub();
 
     RedisClient getRedisClient();
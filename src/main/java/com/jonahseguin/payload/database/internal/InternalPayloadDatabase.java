@@ -25,6 +25,7 @@ import com.mongodb.*;
 import com.mongodb.client.MongoDatabase;
 import io.lettuce.core.RedisClient;
 import io.lettuce.core.api.StatefulRedisConnection;
+import io.lettuce.core.codec.ByteArrayCodec;
 import io.lettuce.core.pubsub.StatefulRedisPubSubConnection;
 import lombok.Getter;
 import lombok.Setter;
@@ -64,6 +65,7 @@ public class InternalPayloadDatabase implements PayloadDatabase {
     private PayloadRedis payloadRedis = null;
     private RedisClient redisClient = null;
     private StatefulRedisConnection<String, String> redis = null;
+    private StatefulRedisConnection<byte[], byte[]> redisBinary = null; // for binary keys (i.e. binary UUID hash fields)
     private StatefulRedisPubSubConnection<String, String> redisPubSub = null;
     private PayloadRedisMonitor redisMonitor = null;
 
@@ -185,6 +187,10 @@ public class InternalPayloadDatabase implements PayloadDatabase {
                 redis = redisClient.connect();
             }
 
+            if (redisBinary == null) {
+                redisBinary = redisClient.connect(ByteArrayCodec.INSTANCE);
+            }
+
             if (redisPubSub == null) {
                 redisPubSub = redisClient.connectPubSub();
             }
@@ -221,6 +227,12 @@ public class InternalPayloadDatabase implements PayloadDatabase {
             }
             this.redis = null;
         }
+        if (this.redisBinary != null) {
+            if (this.redisBinary.isOpen()) {
+                this.redisBinary.close();
+            }
+            this.redisBinary = null;
+        }
         if (this.redisClient != null) {
             this.redisClient.shutdown();
             this.redisClient = null;
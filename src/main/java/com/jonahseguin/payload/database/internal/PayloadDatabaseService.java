@@ -83,6 +83,11 @@ public class PayloadDatabaseService implements DatabaseService {
         return database.getRedis();
     }
 
+    @Override
+    public StatefulRedisConnection<byte[], byte[]> getRedisBinary() {
+        return database.getRedisBinary();
+    }
+
     @Override
     public Datastore getDatastore() {
         return datastore;
@@ -0,0 +1,68 @@
+/*
+ * Copyright (c) 2020 Jonah Seguin.  All rights reserved.  You may not modify, decompile, distribute or use any code/text contained in this document(plugin) without explicit signed permission from Jonah Seguin.
+ * www.jonahseguin.com
+ */
+
+package com.jonahseguin.payload.mode.object;
+
+import com.google.common.base.Preconditions;
+
+import javax.annotation.Nonnull;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Maps object identifiers to the canonical form used as the key in every layer of an object cache.
+ * With {@link com.jonahseguin.payload.mode.object.settings.ObjectCacheSettings#isCaseSensitiveKeys()} the identifier is
+ * its own canonical form; otherwise it is lower-cased.  Identifiers that are already lower-case are returned as-is, and the
+ * lower-cased forms of recently used mixed-case identifiers are interned, so repeated lookups don't allocate.
+ */
+public class ObjectKeyCanonicalizer {
+
+    private static final int MAX_INTERNED = 4096;
+
+    private final PayloadObjectCache<?> cache;
+    private final ConcurrentMap<String, String> interned = new ConcurrentHashMap<>();
+
+    public ObjectKeyCanonicalizer(@Nonnull PayloadObjectCache<?> cache) {
+        Preconditions.checkNotNull(cache);
+        this.cache = cache;
+    }
+
+    public boolean isCaseSensitive() {
+        return cache.getSettings().isCaseSensitiveKeys();
+    }
+
+    @Nonnull
+    public String canonicalize(@Nonnull String key) {
+        Preconditions.checkNotNull(key);
+        if (isCaseSensitive() || isLowerCase(key)) {
+            return key;
+        }
+        String canonical = interned.get(key);
+        if (canonical == null) {
+            canonical = key.toLowerCase(Locale.ROOT);
+            if (interned.size() >= MAX_INTERNED) {
+                // Identifiers are usually a small working set; start over rather than grow without bound
+                interned.clear();
+            }
+            interned.put(key, canonical);
+        }
+        return canonical;
+    }
+
+    private static boolean isLowerCase(String key) {
+        for (int i = 0; i < key.length(); i++) {
+            char c = key.charAt(i);
+            if (c >= 'A' && c <= 'Z') {
+                return false;
+            }
+            if (c >= 128 && Character.toLowerCase(c) != c) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+}
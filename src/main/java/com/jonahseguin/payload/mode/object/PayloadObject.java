@@ -6,25 +6,50 @@
 package com.jonahseguin.payload.mode.object;
 
 import com.google.inject.Inject;
+import com.jonahseguin.payload.base.store.DocumentFingerprint;
+import com.jonahseguin.payload.base.store.PartialUpdater;
 import com.jonahseguin.payload.base.type.Payload;
+import com.jonahseguin.payload.base.util.PayloadClock;
+import com.mongodb.DBObject;
+import dev.morphia.annotations.Field;
 import dev.morphia.annotations.Id;
+import dev.morphia.annotations.Index;
+import dev.morphia.annotations.Indexes;
+import dev.morphia.annotations.PostLoad;
+import dev.morphia.annotations.PostPersist;
+import dev.morphia.annotations.PrePersist;
+import lombok.AccessLevel;
 import lombok.Getter;
 import lombok.Setter;
 import org.bson.types.ObjectId;
 
 import javax.annotation.Nonnull;
+import java.util.Locale;
+import java.util.Optional;
 
 @Getter
 @Setter
+@Indexes({
+        @Index(fields = @Field("identifierLower")),
+        @Index(fields = {@Field("payloadIdLower"), @Field("identifierLower")})
+})
 public abstract class PayloadObject implements Payload<String> {
 
     protected transient final ObjectCache cache;
 
     protected String payloadId;
+    protected String payloadIdLower; // lowercase copy of payloadId, set when persisted
+    protected String identifierLower; // lowercase copy of the identifier, set when persisted, for exact-match (indexed) lookups
     @Id
     protected ObjectId objectId = new ObjectId();
     protected transient long cachedTimestamp = System.currentTimeMillis();
     protected transient long handshakeStartTimestamp = 0;
+    protected transient long lastSaveTimestamp = 0;
+    protected transient byte[] snapshot = null; // the document as last loaded/saved, for partial updates
+    protected transient volatile long savedFingerprint = 0; // DocumentFingerprint of the document as last loaded/saved (0 if neither)
+    protected transient volatile long weight = 0; // estimated weight in the local store, worked out once per loaded/saved version (0 until then)
+    @Getter(AccessLevel.NONE)
+    private transient final Optional<PayloadObject> optional = Optional.of(this); // returned by local cache hits, so they don't allocate
 
     @Inject
     public PayloadObject(ObjectCache cache) {
@@ -34,6 +59,36 @@ public abstract class PayloadObject implements Payload<String> {
         }
     }
 
+    @PrePersist
+    private void onPrePersistPayload() {
+        String identifier = getIdentifier();
+        this.identifierLower = identifier != null ? identifier.toLowerCase(Locale.ROOT) : null;
+        this.payloadIdLower = this.payloadId != null ? this.payloadId.toLowerCase(Locale.ROOT) : null;
+    }
+
+    @PostPersist
+    private void onPostPersistPayload(DBObject dbObject) {
+        markPersisted(dbObject);
+    }
+
+    @PostLoad
+    private void onPostLoadPayload(DBObject dbObject) {
+        // Also runs when restored from the cold tier
+        markPersisted(dbObject);
+        this.lastSaveTimestamp = PayloadClock.currentTimeMillis();
+    }
+
+    @Override
+    public void markPersisted(@Nonnull DBObject document) {
+        this.savedFingerprint = DocumentFingerprint.of(document);
+        if (this.cache != null && this.cache.getSettings().isPartialUpdates()) {
+            this.snapshot = PartialUpdater.snapshot(document);
+            this.weight = this.snapshot.length;
+        } else {
+            this.weight = 0; // a new version, weighed again when it is next admitted to the local store
+        }
+    }
+
     @Override
     public boolean hasValidHandshake() {
         if (handshakeStartTimestamp > 0) {
@@ -56,7 +111,30 @@ public abstract class PayloadObject implements Payload<String> {
 
     @Override
     public void interact() {
-        this.cachedTimestamp = System.currentTimeMillis();
+        this.cachedTimestamp = PayloadClock.currentTimeMillis();
+    }
+
+    @SuppressWarnings("unchecked")
+    public final <X extends PayloadObject> Optional<X> asOptional() {
+        return (Optional<X>) optional;
+    }
+
+    /**
+     * Compares the object's current content with the document it was last loaded or saved as, so objects that were only
+     * read aren't dirty.  Maps the object, so avoid calling it on a hot path.
+     * @return true if this object changed since it was last loaded or saved (or was never either)
+     */
+    public boolean isDirty() {
+        long saved = this.savedFingerprint;
+        if (saved == 0 || cache == null) {
+            return true;
+        }
+        try {
+            return DocumentFingerprint.of(cache.getDatabase().getMorphia().toDBObject(this)) != saved;
+        } catch (Exception ex) {
+            cache.getErrorService().capture(ex, "Error checking if object " + getIdentifier() + " changed since it was saved");
+            return true;
+        }
     }
 
     @Override
@@ -9,20 +9,22 @@ import com.google.common.base.Preconditions;
 import com.google.inject.Injector;
 import com.google.inject.Singleton;
 import com.jonahseguin.payload.base.PayloadCache;
+import com.jonahseguin.payload.base.store.BulkSaver;
 import com.jonahseguin.payload.base.store.PayloadStore;
 import com.jonahseguin.payload.base.type.PayloadInstantiator;
+import com.jonahseguin.payload.base.util.PayloadClock;
 import com.jonahseguin.payload.mode.object.settings.ObjectCacheSettings;
 import com.jonahseguin.payload.mode.object.store.ObjectStoreLocal;
 import com.jonahseguin.payload.mode.object.store.ObjectStoreMongo;
 import lombok.Getter;
 
 import javax.annotation.Nonnull;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashSet;
+import java.util.List;
+import java.util.Optional;
 import java.util.Set;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ConcurrentMap;
-import java.util.concurrent.atomic.AtomicInteger;
 import java.util.stream.Collectors;
 
 @Getter
@@ -30,7 +32,7 @@ import java.util.stream.Collectors;
 public class PayloadObjectCache<X extends PayloadObject> extends PayloadCache<String, X> implements ObjectCache<X> {
 
     private final ObjectCacheSettings settings = new ObjectCacheSettings();
-    private final ConcurrentMap<String, PayloadObjectController<X>> controllers = new ConcurrentHashMap<>();
+    private final ObjectKeyCanonicalizer keyCanonicalizer = new ObjectKeyCanonicalizer(this);
     private final ObjectStoreLocal<X> localStore = new ObjectStoreLocal<>(this);
     private final ObjectStoreMongo<X> mongoStore = new ObjectStoreMongo<>(this);
 
@@ -61,18 +63,12 @@ public class PayloadObjectCache<X extends PayloadObject> extends PayloadCache<St
     @Override
     protected boolean terminate() {
         boolean success = true;
-        AtomicInteger failedSaves = new AtomicInteger(0);
-        getCached().forEach(payload -> {
-            if (!save(payload)) {
-                failedSaves.getAndIncrement();
-            }
-        });
-        if (failedSaves.get() > 0) {
+        int failedSaves = saveAll(getCached());
+        if (failedSaves > 0) {
             errorService.capture(failedSaves + " objects failed to save during shutdown");
             success = false;
         }
 
-        controllers.clear();
         if (!localStore.shutdown()) {
             success = false;
         }
@@ -87,7 +83,34 @@ public class PayloadObjectCache<X extends PayloadObject> extends PayloadCache<St
     @Override
     public PayloadObjectController<X> controller(@Nonnull String key) {
         Preconditions.checkNotNull(key);
-        return controllers.computeIfAbsent(key, s -> new PayloadObjectController<>(this, s));
+        // Controllers only hold the state of a single cache() call, so they aren't kept around
+        return new PayloadObjectController<>(this, key);
+    }
+
+    @Override
+    public Optional<X> get(@Nonnull String key) {
+        Preconditions.checkNotNull(key);
+        X local = localStore.getIfPresent(key);
+        if (local != null) {
+            return local.asOptional();
+        }
+        return controller(key).cache(false);
+    }
+
+    @Override
+    public int controllerCount() {
+        return 0;
+    }
+
+    @Override
+    public int cleanupControllers() {
+        return 0;
+    }
+
+    @Override
+    public int evictForMemory(int max) {
+        localStore.getColdStore().clear();
+        return localStore.evictCold(max);
     }
 
     @Nonnull
@@ -96,6 +119,15 @@ public class PayloadObjectCache<X extends PayloadObject> extends PayloadCache<St
         return mongoStore;
     }
 
+    @Override
+    public boolean save(@Nonnull X payload) {
+        boolean saved = super.save(payload);
+        if (saved) {
+            payload.setLastSaveTimestamp(PayloadClock.currentTimeMillis());
+        }
+        return saved;
+    }
+
     @Override
     public String keyToString(@Nonnull String key) {
         return key;
@@ -112,6 +144,18 @@ public class PayloadObjectCache<X extends PayloadObject> extends PayloadCache<St
         return key;
     }
 
+    @Override
+    public void cache(@Nonnull X payload) {
+        Preconditions.checkNotNull(payload);
+        X existing = localStore.getLocalCache().get(keyCanonicalizer.canonicalize(payload.getIdentifier()));
+        super.cache(payload);
+        if (existing != null && existing != payload) {
+            // Its fields were replaced with the newer copy's, so it is as clean as that copy
+            existing.setSavedFingerprint(payload.getSavedFingerprint());
+            existing.setLastSaveTimestamp(payload.getLastSaveTimestamp());
+        }
+    }
+
     @Override
     public void cacheAll() {
         getAll().forEach(this::cache);
@@ -129,13 +173,30 @@ public class PayloadObjectCache<X extends PayloadObject> extends PayloadCache<St
 
     @Override
     public int saveAll() {
-        AtomicInteger failures = new AtomicInteger();
-        for (X object : localStore.getAll()) {
-            if (!save(object)) {
-                failures.getAndIncrement();
+        return saveAll(localStore.getAll());
+    }
+
+    private int saveAll(@Nonnull Collection<X> cached) {
+        List<X> objects = new ArrayList<>(cached);
+        int failures = 0;
+        if (!settings.isUseMongo() || settings.getBulkWriteBatchSize() <= 0) {
+            for (X object : objects) {
+                if (!save(object)) {
+                    failures++;
+                }
+            }
+            return failures;
+        }
+        final long saveStart = PayloadClock.currentTimeMillis();
+        BulkSaver.Result result = mongoStore.saveAll(objects);
+        for (X object : objects) {
+            if (result.isFailed(object)) {
+                failures++;
+            } else {
+                object.setLastSaveTimestamp(saveStart);
             }
         }
-        return failures.get();
+        return failures;
     }
 
     @Override
@@ -46,6 +46,13 @@ public class PayloadObjectController<X extends PayloadObject> implements Payload
 
     @Override
     public Optional<X> cache() {
+        return cache(true);
+    }
+
+    /**
+     * @param checkLocal false if the caller already missed the local store
+     */
+    Optional<X> cache(boolean checkLocal) {
         /*if (cache.getSyncMode().equals(SyncMode.ALWAYS) && cache.getSettings().isEnableSync() && cache.isCached(identifier)) {
             load(true);
         } else {
@@ -83,7 +90,7 @@ public class PayloadObjectController<X extends PayloadObject> implements Payload
                 load(true);
             }
         }*/
-        load(true);
+        load(checkLocal);
 
         if (payload != null) {
             X p = payload.get();
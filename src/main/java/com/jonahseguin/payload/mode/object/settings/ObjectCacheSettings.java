@@ -6,9 +6,12 @@
 package com.jonahseguin.payload.mode.object.settings;
 
 import com.jonahseguin.payload.base.settings.CacheSettings;
+import com.jonahseguin.payload.mode.object.PayloadObject;
 import lombok.Getter;
 import lombok.Setter;
 
+import java.util.function.ToIntFunction;
+
 @Getter
 @Setter
 public class ObjectCacheSettings extends CacheSettings {
@@ -16,5 +19,9 @@ public class ObjectCacheSettings extends CacheSettings {
     private boolean useRedis = true;
     private boolean useMongo = true;
     private boolean createOnNull = false;
+    private boolean caseSensitiveKeys = false; // treat identifiers that differ only in case as different objects (queries MongoDB with an exact match instead of a case-insensitive one)
+    private int localMaxEntries = 0; // maximum objects kept in the local store, least valuable evicted first (0 for unbounded, ignored without MongoDB)
+    private long localMaxWeight = 0; // maximum total weight of the local store, takes precedence over localMaxEntries (0 for unbounded, ignored without MongoDB)
+    private ToIntFunction<PayloadObject> weigher = null; // weight of an object for localMaxWeight (null to use its serialized BSON size in bytes, worked out once per loaded/saved version)
 
 }
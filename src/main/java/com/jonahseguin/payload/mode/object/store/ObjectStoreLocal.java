@@ -6,56 +6,220 @@
 package com.jonahseguin.payload.mode.object.store;
 
 import com.google.common.base.Preconditions;
+import com.jonahseguin.payload.base.store.ColdStore;
+import com.jonahseguin.payload.base.store.LocalIndex;
+import com.jonahseguin.payload.base.store.eviction.TinyLfuPolicy;
+import com.jonahseguin.payload.base.util.PayloadClock;
 import com.jonahseguin.payload.mode.object.PayloadObject;
 import com.jonahseguin.payload.mode.object.PayloadObjectCache;
+import com.jonahseguin.payload.mode.object.settings.ObjectCacheSettings;
 import lombok.Getter;
+import org.bson.BasicBSONEncoder;
 import org.bson.types.ObjectId;
 
 import javax.annotation.Nonnull;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
 
+/**
+ * Local (in-memory) object store.  When {@link ObjectCacheSettings#getLocalMaxEntries()} or
+ * {@link ObjectCacheSettings#getLocalMaxWeight()} is set, the store is bounded by a {@link TinyLfuPolicy}; objects that
+ * changed since they were last saved are saved before they are evicted.
+ * Evicted objects are kept serialized in the {@link ColdStore} (when enabled) and restored from it on a miss.
+ * Objects are indexed by ObjectId, plus any {@link LocalIndex} registered via {@link #registerIndex(LocalIndex)}.
+ */
 @Getter
 public class ObjectStoreLocal<X extends PayloadObject> extends ObjectCacheStore<X> {
 
     private final ConcurrentMap<String, X> localCache = new ConcurrentHashMap<>();
+    private final TinyLfuPolicy<String> policy = new TinyLfuPolicy<>();
+    private final ReentrantLock policyLock = new ReentrantLock();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final ColdStore<String, X> coldStore;
+    private final LocalIndex<String, X, ObjectId> objectIdIndex = LocalIndex.unique("objectId", PayloadObject::getObjectId);
+    private final Map<String, LocalIndex<String, X, ?>> indexes = new ConcurrentHashMap<>();
     private boolean running = false;
 
     public ObjectStoreLocal(PayloadObjectCache<X> cache) {
         super(cache);
+        this.coldStore = new ColdStore<>(cache);
+        indexes.put(objectIdIndex.getName(), objectIdIndex);
     }
 
     @Override
     public Optional<X> get(@Nonnull String key) {
+        X x = getIfPresent(key);
+        return x != null ? x.asOptional() : Optional.empty();
+    }
+
+    /**
+     * The local cache hit path: no allocation when the object is cached
+     * @param key Identifier
+     * @return The cached object, or null
+     */
+    public X getIfPresent(@Nonnull String key) {
         Preconditions.checkNotNull(key);
-        return Optional.ofNullable(this.localCache.get(key.toLowerCase()));
+        String canonical = canonicalize(key);
+        X x = this.localCache.get(canonical);
+        if (x != null) {
+            hits.increment();
+            x.interact();
+            if (isBounded() && policyLock.tryLock()) {
+                // Accesses are only a hint for the policy; skip recording them rather than contend for the lock
+                try {
+                    policy.recordAccess(canonical);
+                } finally {
+                    policyLock.unlock();
+                }
+            }
+        } else {
+            misses.increment();
+            x = promote(canonical);
+        }
+        return x;
+    }
+
+    private X promote(@Nonnull String key) {
+        X x = coldStore.take(key);
+        if (x == null) {
+            return null;
+        }
+        X existing = localCache.putIfAbsent(key, x);
+        if (existing != null) {
+            // Cached again while we were restoring it
+            existing.interact();
+            return existing;
+        }
+        x.interact();
+        indexes.values().forEach(index -> index.index(key, x));
+        if (isBounded()) {
+            admit(key, x);
+        }
+        return x;
     }
 
     public Optional<X> getByObjectID(ObjectId id) {
-        return this.localCache.values().stream().filter(x -> x.getObjectId().equals(id)).findFirst();
+        return objectIdIndex.getKey(id).map(localCache::get);
+    }
+
+    /**
+     * Register a secondary index on a field of your objects, which is maintained as objects are cached/uncached.
+     * Existing objects are indexed immediately.
+     * @param index The index, i.e. {@code LocalIndex.unique("name", Guild::getName)}
+     * @return The index
+     */
+    public <V> LocalIndex<String, X, V> registerIndex(@Nonnull LocalIndex<String, X, V> index) {
+        Preconditions.checkNotNull(index);
+        Preconditions.checkState(!indexes.containsKey(index.getName()), "An index named " + index.getName() + " is already registered");
+        indexes.put(index.getName(), index);
+        localCache.forEach(index::index);
+        return index;
+    }
+
+    @SuppressWarnings("unchecked")
+    public <V> Optional<LocalIndex<String, X, V>> getIndex(@Nonnull String name) {
+        Preconditions.checkNotNull(name);
+        return Optional.ofNullable((LocalIndex<String, X, V>) indexes.get(name));
+    }
+
+    /**
+     * @param name Index name
+     * @param value Indexed value
+     * @return The cached object indexed under the value (the first one, if the index isn't unique)
+     */
+    public <V> Optional<X> getOneByIndex(@Nonnull String name, @Nonnull V value) {
+        LocalIndex<String, X, V> index = this.<V>getIndex(name).orElseThrow(() -> new IllegalArgumentException("No index named " + name));
+        return index.getKey(value).map(localCache::get);
+    }
+
+    /**
+     * @param name Index name
+     * @param value Indexed value
+     * @return All cached objects indexed under the value
+     */
+    @Nonnull
+    public <V> Set<X> getByIndex(@Nonnull String name, @Nonnull V value) {
+        LocalIndex<String, X, V> index = this.<V>getIndex(name).orElseThrow(() -> new IllegalArgumentException("No index named " + name));
+        Set<X> result = new HashSet<>();
+        for (String key : index.getKeys(value)) {
+            X x = localCache.get(key);
+            if (x != null) {
+                result.add(x);
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public void reindex(@Nonnull X payload) {
+        Preconditions.checkNotNull(payload);
+        String key = canonicalize(payload.getIdentifier());
+        if (localCache.get(key) == payload) {
+            indexes.values().forEach(index -> index.index(key, payload));
+        }
+    }
+
+    private String canonicalize(@Nonnull String key) {
+        return cache.getKeyCanonicalizer().canonicalize(key);
+    }
+
+    private void unindex(@Nonnull String key) {
+        indexes.values().forEach(index -> index.unindex(key));
     }
 
     @Override
     public boolean save(@Nonnull X payload) {
-        this.localCache.put(payload.getIdentifier().toLowerCase(), payload);
+        String key = canonicalize(payload.getIdentifier());
+        coldStore.remove(key);
+        this.localCache.put(key, payload);
+        indexes.values().forEach(index -> index.index(key, payload));
+        if (isBounded()) {
+            admit(key, payload);
+        }
         return true;
     }
 
     @Override
     public boolean has(@Nonnull String key) {
-        return this.localCache.containsKey(key.toLowerCase());
+        return this.localCache.containsKey(canonicalize(key));
     }
 
     @Override
     public boolean has(@Nonnull X payload) {
-        return this.has(payload.getIdentifier().toLowerCase());
+        return this.has(payload.getIdentifier());
+    }
+
+    @Override
+    public void invalidate(@Nonnull String key) {
+        coldStore.remove(canonicalize(key));
     }
 
     @Override
     public void remove(@Nonnull String key) {
-        this.localCache.remove(key.toLowerCase());
+        String canonical = canonicalize(key);
+        this.localCache.remove(canonical);
+        coldStore.remove(canonical);
+        unindex(canonical);
+        if (isBounded()) {
+            policyLock.lock();
+            try {
+                policy.remove(canonical);
+            } finally {
+                policyLock.unlock();
+            }
+        }
     }
 
     @Override
@@ -78,11 +242,141 @@ public class ObjectStoreLocal<X extends PayloadObject> extends ObjectCacheStore<
     public long clear() {
         final int size = this.localCache.size();
         this.localCache.clear();
+        indexes.values().forEach(LocalIndex::clear);
+        coldStore.clear();
+        policyLock.lock();
+        try {
+            policy.clear();
+        } finally {
+            policyLock.unlock();
+        }
         return size;
     }
 
+    /**
+     * Evict objects without unsaved changes, least recently used first.  Objects are only evicted when MongoDB is used,
+     * otherwise the local store is their only copy.
+     * @param max Maximum number of objects to evict
+     * @return Number of objects evicted
+     */
+    public int evictCold(int max) {
+        if (max <= 0 || !cache.getSettings().isUseMongo()) {
+            return 0;
+        }
+        List<Map.Entry<String, X>> candidates = new ArrayList<>(localCache.entrySet());
+        candidates.sort(Comparator.comparingLong(e -> e.getValue().getCachedTimestamp()));
+        // Checked lazily, since isDirty() maps the object
+        int evicted = 0;
+        for (Map.Entry<String, X> entry : candidates) {
+            if (evicted >= max) {
+                break;
+            }
+            X x = entry.getValue();
+            if (!x.isDirty() && localCache.remove(entry.getKey(), x)) {
+                unindex(entry.getKey());
+                if (isBounded()) {
+                    policyLock.lock();
+                    try {
+                        policy.remove(entry.getKey());
+                    } finally {
+                        policyLock.unlock();
+                    }
+                }
+                evicted++;
+            }
+        }
+        evictions.add(evicted);
+        return evicted;
+    }
+
+    /**
+     * @return true if the store is bounded by the eviction policy; never without MongoDB, where the local store is the only copy
+     */
+    public boolean isBounded() {
+        ObjectCacheSettings settings = cache.getSettings();
+        return settings.isUseMongo() && (settings.getLocalMaxEntries() > 0 || settings.getLocalMaxWeight() > 0);
+    }
+
+    private void admit(@Nonnull String key, @Nonnull X payload) {
+        ObjectCacheSettings settings = cache.getSettings();
+        boolean weighted = settings.getLocalMaxWeight() > 0;
+        long weight = weighted ? weigh(payload) : 1L;
+        List<String> evicted;
+        policyLock.lock();
+        try {
+            policy.setMaximum(weighted ? settings.getLocalMaxWeight() : settings.getLocalMaxEntries());
+            evicted = policy.add(key, weight);
+        } finally {
+            policyLock.unlock();
+        }
+        for (String victim : evicted) {
+            evict(victim);
+        }
+    }
+
+    private void evict(@Nonnull String key) {
+        X x = localCache.get(key);
+        if (x == null) {
+            return;
+        }
+        if (!x.isDirty()) {
+            if (localCache.remove(key, x)) {
+                unindex(key);
+                evictions.increment();
+                coldStore.put(key, x);
+            }
+            return;
+        }
+        // Save before letting go of it, so that unsaved changes aren't lost
+        final long saveStart = PayloadClock.currentTimeMillis(); // same clock as interact(), so a use during the save keeps it dirty
+        cache.runAsync(() -> {
+            if (cache.getMongoStore().save(x)) {
+                x.setLastSaveTimestamp(saveStart);
+                if (x.getCachedTimestamp() < saveStart && localCache.remove(key, x)) {
+                    unindex(key);
+                    evictions.increment();
+                    coldStore.put(key, x);
+                    cache.getErrorService().debug("Saved and evicted object " + x.getIdentifier() + " from local store");
+                    return;
+                }
+            } else {
+                // Stays cached (untracked by the policy until it is cached again) rather than losing its changes
+                cache.getErrorService().capture("Failed to save object " + x.getIdentifier() + " before evicting it from the local store, keeping it cached");
+                return;
+            }
+            if (localCache.get(key) == x) {
+                // Used again while it was being saved; keep it
+                admit(key, x);
+            }
+        });
+    }
+
+    private long weigh(@Nonnull X payload) {
+        ObjectCacheSettings settings = cache.getSettings();
+        if (settings.getWeigher() != null) {
+            return Math.max(1, settings.getWeigher().applyAsInt(payload));
+        }
+        long weight = payload.getWeight();
+        if (weight > 0) {
+            return weight; // already weighed since it was last loaded/saved
+        }
+        try {
+            // Estimate from the serialized size (BSON, so strings count as their UTF-8 bytes)
+            weight = Math.max(1, new BasicBSONEncoder().encode(cache.getDatabase().getMorphia().toDBObject(payload)).length);
+            payload.setWeight(weight);
+            return weight;
+        } catch (Exception ex) {
+            cache.getErrorService().capture(ex, "Error estimating weight of object " + payload.getIdentifier());
+            return 1L;
+        }
+    }
+
     @Override
     public boolean start() {
+        ObjectCacheSettings settings = cache.getSettings();
+        if (!settings.isUseMongo() && (settings.getLocalMaxEntries() > 0 || settings.getLocalMaxWeight() > 0)) {
+            cache.getErrorService().capture("localMaxEntries/localMaxWeight are ignored for cache " + cache.getName() + ": it doesn't use MongoDB, so the local store is the only copy of its objects");
+        }
         running = true;
         return true;
     }
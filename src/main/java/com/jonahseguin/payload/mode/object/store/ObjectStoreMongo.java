@@ -6,15 +6,21 @@
 package com.jonahseguin.payload.mode.object.store;
 
 import com.google.common.base.Preconditions;
+import com.jonahseguin.payload.base.store.BulkSaver;
+import com.jonahseguin.payload.base.store.LowercaseBackfill;
+import com.jonahseguin.payload.base.store.PartialUpdater;
 import com.jonahseguin.payload.base.type.PayloadQueryModifier;
 import com.jonahseguin.payload.mode.object.PayloadObject;
 import com.jonahseguin.payload.mode.object.PayloadObjectCache;
+import com.mongodb.BasicDBObject;
 import com.mongodb.MongoException;
+import dev.morphia.query.CountOptions;
 import dev.morphia.query.Query;
 
 import javax.annotation.Nonnull;
 import java.util.Collection;
 import java.util.HashSet;
+import java.util.Locale;
 import java.util.Optional;
 import java.util.Set;
 import java.util.stream.Collectors;
@@ -23,23 +29,28 @@ import java.util.stream.Stream;
 public class ObjectStoreMongo<X extends PayloadObject> extends ObjectCacheStore<X> {
 
     private final Set<PayloadQueryModifier<X>> queryModifiers = new HashSet<>();
+    private final PartialUpdater partialUpdater;
+    private final BulkSaver bulkSaver;
 
     private boolean running = false;
     private X nullPayload = null; // for identifierFieldName
+    private LowercaseBackfill backfill = null;
 
     public ObjectStoreMongo(PayloadObjectCache<X> cache) {
         super(cache);
+        this.partialUpdater = new PartialUpdater(cache);
+        this.bulkSaver = new BulkSaver(cache, partialUpdater);
     }
 
     @Override
     public Optional<X> get(@Nonnull String key) {
         Preconditions.checkNotNull(key);
         try {
-            Query<X> q = getQuery(key);
-            Stream<X> stream = q.find().toList().stream();
-            Optional<X> xp = stream.findFirst();
-            xp.ifPresent(PayloadObject::interact);
-            return xp;
+            X x = getQuery(key).first();
+            if (x != null) {
+                x.interact();
+            }
+            return Optional.ofNullable(x);
         } catch (MongoException ex) {
             this.getCache().getErrorService().capture(ex, "MongoDB error getting Object from MongoDB Layer: " + key);
             return Optional.empty();
@@ -53,10 +64,7 @@ public class ObjectStoreMongo<X extends PayloadObject> extends ObjectCacheStore<
     public boolean has(@Nonnull String key) {
         Preconditions.checkNotNull(key);
         try {
-            Query<X> q = getQuery(key);
-            Stream<X> stream = q.find().toList().stream();
-            Optional<X> xp = stream.findFirst();
-            return xp.isPresent();
+            return exists(getQuery(key));
         } catch (MongoException ex) {
             this.getCache().getErrorService().capture(ex, "MongoDB error check if Object exists in MongoDB Layer: " + key);
             return false;
@@ -84,6 +92,9 @@ public class ObjectStoreMongo<X extends PayloadObject> extends ObjectCacheStore<
         Preconditions.checkNotNull(payload);
         payload.interact();
         try {
+            if (this.cache.getSettings().isPartialUpdates() && this.partialUpdater.save(payload)) {
+                return true;
+            }
             return this.cache.getDatabase().getDatastore().save(payload) != null;
         } catch (MongoException ex) {
             this.getCache().getErrorService().capture(ex, "MongoDB error saving Object to MongoDB Layer: " + payload.getIdentifier());
@@ -94,15 +105,30 @@ public class ObjectStoreMongo<X extends PayloadObject> extends ObjectCacheStore<
         }
     }
 
+    /**
+     * Save many payloads in unordered bulk writes
+     * @param payloads Payloads to save
+     * @return The outcome, including the payloads that failed to save
+     */
+    @Nonnull
+    public BulkSaver.Result saveAll(@Nonnull Collection<X> payloads) {
+        Preconditions.checkNotNull(payloads);
+        for (X payload : payloads) {
+            payload.interact();
+        }
+        return this.bulkSaver.save(payloads);
+    }
+
+    public BulkSaver.Result getLastBulkSave() {
+        return this.bulkSaver.getLastResult();
+    }
+
     @Override
     public boolean has(@Nonnull X payload) {
         Preconditions.checkNotNull(payload);
         payload.interact();
         try {
-            Query<X> q = getQuery(payload.getIdentifier());
-            Stream<X> stream = q.find().toList().stream();
-            Optional<X> xp = stream.findFirst();
-            return xp.isPresent();
+            return exists(getQuery(payload.getIdentifier()));
         } catch (MongoException ex) {
             this.getCache().getErrorService().capture(ex, "MongoDB error checking if Object exists in MongoDB Layer: " + payload.getIdentifier());
             return false;
@@ -142,8 +168,29 @@ public class ObjectStoreMongo<X extends PayloadObject> extends ObjectCacheStore<
         }
         this.nullPayload = this.cache.create();
         Preconditions.checkNotNull(nullPayload, "Null payload failed to instantiate");
+        this.backfill = new LowercaseBackfill(this.cache, this.cache.getPayloadClass())
+                .field("identifierLower", this.nullPayload.identifierFieldName())
+                .field("payloadIdLower", "payloadId");
+        if (this.cache.getDatabase().isRunning()) {
+            this.cache.runAsync(this.backfill);
+        }
         if (this.cache.getSettings().isServerSpecific()) {
-            this.addCriteriaModifier(query -> query.field("payloadId").equalIgnoreCase(cache.getApi().getPayloadID()));
+            this.addCriteriaModifier(query -> {
+                if (isBackfilled()) {
+                    query.field("payloadIdLower").equal(cache.getApi().getPayloadID().toLowerCase(Locale.ROOT));
+                } else {
+                    query.field("payloadId").equalIgnoreCase(cache.getApi().getPayloadID());
+                }
+            });
+            if (this.cache.getKeyCanonicalizer().isCaseSensitive() && this.cache.getDatabase().isRunning()) {
+                // Case-insensitive caches look up by identifierLower, which PayloadObject indexes with payloadIdLower already
+                try {
+                    this.cache.getDatabase().getDatastore().getCollection(this.cache.getPayloadClass())
+                            .createIndex(new BasicDBObject("payloadIdLower", 1).append(this.nullPayload.identifierFieldName(), 1));
+                } catch (MongoException ex) {
+                    this.cache.getErrorService().capture(ex, "MongoDB error creating server-specific index for Object MongoDB Layer");
+                }
+            }
         }
         return true;
     }
@@ -194,15 +241,36 @@ public class ObjectStoreMongo<X extends PayloadObject> extends ObjectCacheStore<
         return q;
     }
 
+    /**
+     * @return true if the query matches any document; counted on the server (stopping at the first match),
+     * so nothing is transferred or mapped
+     */
+    public boolean exists(@Nonnull Query<X> q) {
+        return q.count(new CountOptions().limit(1)) > 0;
+    }
+
     public Query<X> getQuery(String key) {
         Query<X> q = createQuery();
         Preconditions.checkNotNull(q, "Query is null");
         Preconditions.checkNotNull(nullPayload, "nullPayload is null");
         Preconditions.checkNotNull(nullPayload.identifierFieldName(), "identifierFieldName() is null for Payload Object: " + this.nullPayload.getClass().getSimpleName());
-        q.criteria(this.nullPayload.identifierFieldName()).equalIgnoreCase(key);
+        if (cache.getKeyCanonicalizer().isCaseSensitive()) {
+            q.criteria(this.nullPayload.identifierFieldName()).equal(key);
+        } else if (isBackfilled()) {
+            q.criteria("identifierLower").equal(cache.getKeyCanonicalizer().canonicalize(key));
+        } else {
+            q.criteria(this.nullPayload.identifierFieldName()).equalIgnoreCase(key);
+        }
         return q;
     }
 
+    /**
+     * @return true once every stored object has its lowercase shadow fields, so they can be queried with exact matches
+     */
+    public boolean isBackfilled() {
+        return backfill != null && backfill.isComplete();
+    }
+
     @Override
     public boolean isDatabase() {
         return true;
@@ -7,20 +7,26 @@ package com.jonahseguin.payload.mode.profile;
 
 import com.google.inject.Inject;
 import com.jonahseguin.payload.PayloadPlugin;
+import com.jonahseguin.payload.base.store.PartialUpdater;
 import com.jonahseguin.payload.base.type.Payload;
+import com.jonahseguin.payload.base.uuid.BinaryUUID;
+import com.jonahseguin.payload.base.util.PayloadClock;
 import com.jonahseguin.payload.mode.profile.util.MsgBuilder;
+import com.mongodb.DBObject;
 import dev.morphia.annotations.*;
+import lombok.AccessLevel;
 import lombok.Getter;
 import lombok.Setter;
 import net.md_5.bungee.api.chat.BaseComponent;
 import net.md_5.bungee.api.chat.ComponentBuilder;
 import org.apache.commons.lang3.Validate;
 import org.bson.types.ObjectId;
-import org.bukkit.Bukkit;
 import org.bukkit.ChatColor;
 import org.bukkit.entity.Player;
 
 import javax.annotation.Nonnull;
+import java.util.Locale;
+import java.util.Optional;
 import java.util.UUID;
 
 // The implementing class of this abstract class must add an @Entity annotation (from MongoDB) with a collection name!
@@ -28,7 +34,9 @@ import java.util.UUID;
 @Setter
 @Indexes({
         @Index(fields = @Field("username")),
-        @Index(fields = @Field("uniqueId"))
+        @Index(fields = @Field("uniqueId")),
+        @Index(fields = @Field("usernameLower")),
+        @Index(fields = {@Field("payloadIdLower"), @Field("uniqueId")})
 })
 public abstract class PayloadProfile implements Payload<UUID> {
 
@@ -38,20 +46,28 @@ public abstract class PayloadProfile implements Payload<UUID> {
     protected ObjectId objectId = new ObjectId();
     @Indexed
     protected String username;
+    protected String usernameLower; // lowercase copy of username, set when persisted, for exact-match (indexed) username lookups
     @Indexed
-    protected String uniqueId;
+    protected String uniqueId; // always lowercase (UUID#toString)
     protected String loginIp = null; // IP the profile logged in with
     protected String payloadId; // The ID of the Payload instance that currently holds this profile
+    protected String payloadIdLower; // lowercase copy of payloadId, set when persisted
+    protected long version = 0; // Incremented by markDirty(), persisted so that it increases monotonically across servers
     protected transient UUID uuid = null;
     protected transient long cachedTimestamp = System.currentTimeMillis();
     protected transient long lastInteractionTimestamp = System.currentTimeMillis();
     protected transient long lastSaveTimestamp = 0;
+    protected transient long savedVersion = 0; // The version last written to or read from the database
     protected transient boolean saveFailed = false; // If the player's profile failed to auto-save/save on shutdown,
     // This will be set to true, and we will notify the player once their
     // Profile has been saved successfully
     protected transient String loadingSource = null;
     protected transient Player player = null;
+    @Getter(AccessLevel.NONE)
+    private transient final Optional<PayloadProfile> optional = Optional.of(this); // returned by local cache hits, so they don't allocate
+    protected transient volatile boolean online = false; // set while the player is initialized (joined and not yet quit) on this server
     protected transient long handshakeStartTimestamp = 0; // the time when a handshake starts (when another server requests that we save this profile)
+    protected transient byte[] snapshot = null; // the document as last loaded/saved, for partial updates
 
     @Inject
     public PayloadProfile(ProfileCache cache) {
@@ -67,9 +83,77 @@ public abstract class PayloadProfile implements Payload<UUID> {
         this.loginIp = loginIp;
     }
 
+    @PrePersist
+    private void onPrePersistPayload() {
+        this.usernameLower = this.username != null ? this.username.toLowerCase(Locale.ROOT) : null;
+        this.payloadIdLower = this.payloadId != null ? this.payloadId.toLowerCase(Locale.ROOT) : null;
+    }
+
+    @PreSave
+    private void onPreSavePayload(DBObject dbObject) {
+        if (this.cache != null && this.cache.getSettings().isBinaryUuids() && this.uniqueId != null) {
+            dbObject.put("uniqueId", BinaryUUID.toBinary(this.getUUID()));
+        }
+    }
+
+    @PreLoad
+    private void onPreLoadPayload(DBObject dbObject) {
+        Object value = dbObject.get("uniqueId");
+        if (value != null && !(value instanceof String)) {
+            // Stored as binary: map it to the string field, and keep the UUID so it isn't parsed again
+            UUID read = BinaryUUID.read(value);
+            if (read != null) {
+                this.uuid = read;
+                dbObject.put("uniqueId", read.toString());
+            }
+        }
+    }
+
+    @PostPersist
+    private void onPostPersistPayload(DBObject dbObject) {
+        markPersisted(dbObject);
+    }
+
     @PostLoad
-    private void onPostPayloadLoad() {
-        this.uuid = UUID.fromString(this.uniqueId);
+    private void onPostPayloadLoad(DBObject dbObject) {
+        markPersisted(dbObject);
+        if (this.uuid == null) {
+            this.uuid = UUID.fromString(this.uniqueId);
+        }
+        this.savedVersion = this.version;
+    }
+
+    @Override
+    public void markPersisted(@Nonnull DBObject document) {
+        if (this.cache != null && this.cache.getSettings().isPartialUpdates()) {
+            this.snapshot = PartialUpdater.snapshot(document);
+        }
+    }
+
+    /**
+     * Mark this profile as modified since it was last saved.
+     * When {@link com.jonahseguin.payload.mode.profile.settings.ProfileCacheSettings#isSkipHandshakeWhenSaved()} is enabled,
+     * this must be called whenever persistent data changes: servers that the player switches to will only handshake
+     * with this server if the profile has been marked dirty since its last save.
+     * The first call after a save sends that to Redis before returning, without waiting for a reply.
+     */
+    @SuppressWarnings("unchecked")
+    public void markDirty() {
+        boolean wasClean;
+        synchronized (this) {
+            wasClean = this.version == this.savedVersion;
+            this.version++;
+        }
+        if (wasClean) {
+            this.cache.onDirty(this);
+        }
+    }
+
+    /**
+     * @return True if this profile has been marked dirty (or failed to save) since it was last saved
+     */
+    public boolean isDirty() {
+        return this.saveFailed || this.version != this.savedVersion;
     }
 
     @Override
@@ -116,10 +200,12 @@ public abstract class PayloadProfile implements Payload<UUID> {
     public final void initializePlayer(Player player) {
         Validate.notNull(player, "Player cannot be null for initializePlayer");
         this.player = player;
+        this.online = true;
         this.init();
     }
 
     public final void uninitializePlayer() {
+        this.online = false;
         this.uninit();
         this.player = null;
     }
@@ -129,14 +215,7 @@ public abstract class PayloadProfile implements Payload<UUID> {
     protected abstract void uninit();
 
     public boolean isOnline() {
-        if (this.player == null) {
-            Player player = Bukkit.getPlayer(this.getUUID());
-            if (player != null && player.isOnline()) {
-                this.player = player;
-                return true;
-            }
-        }
-        return this.player != null && this.player.isOnline();
+        return this.online;
     }
 
     public String getCurrentIP() {
@@ -148,7 +227,12 @@ public abstract class PayloadProfile implements Payload<UUID> {
 
     @Override
     public void interact() {
-        this.lastInteractionTimestamp = System.currentTimeMillis();
+        this.lastInteractionTimestamp = PayloadClock.currentTimeMillis();
+    }
+
+    @SuppressWarnings("unchecked")
+    public final <X extends PayloadProfile> Optional<X> asOptional() {
+        return (Optional<X>) optional;
     }
 
     @Override
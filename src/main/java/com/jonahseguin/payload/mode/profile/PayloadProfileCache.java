@@ -12,14 +12,20 @@ import com.google.inject.Singleton;
 import com.jonahseguin.payload.PayloadMode;
 import com.jonahseguin.payload.base.PayloadCache;
 import com.jonahseguin.payload.base.PayloadCallback;
+import com.jonahseguin.payload.base.store.BulkSaver;
 import com.jonahseguin.payload.base.store.PayloadStore;
 import com.jonahseguin.payload.base.type.PayloadInstantiator;
+import com.jonahseguin.payload.base.uuid.ConcurrentUUIDMap;
 import com.jonahseguin.payload.base.uuid.UUIDService;
+import com.jonahseguin.payload.mode.profile.admission.LoginAdmission;
 import com.jonahseguin.payload.mode.profile.handshake.ProfileHandshakeService;
 import com.jonahseguin.payload.mode.profile.network.NetworkProfile;
 import com.jonahseguin.payload.mode.profile.network.NetworkService;
 import com.jonahseguin.payload.mode.profile.network.RedisNetworkService;
 import com.jonahseguin.payload.mode.profile.settings.ProfileCacheSettings;
+import com.jonahseguin.payload.mode.profile.stats.ProfileLoginStats;
+import com.jonahseguin.payload.mode.profile.store.ProfileBatchLoader;
+import com.jonahseguin.payload.mode.profile.store.ProfileDepartedStore;
 import com.jonahseguin.payload.mode.profile.store.ProfileStoreLocal;
 import com.jonahseguin.payload.mode.profile.store.ProfileStoreMongo;
 import com.jonahseguin.payload.mode.profile.update.ProfileUpdater;
@@ -28,13 +34,20 @@ import lombok.Getter;
 import org.bukkit.entity.Player;
 
 import javax.annotation.Nonnull;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
 import java.util.UUID;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.stream.Collectors;
 
 @Getter
@@ -42,10 +55,17 @@ import java.util.stream.Collectors;
 public class PayloadProfileCache<X extends PayloadProfile> extends PayloadCache<UUID, X> implements ProfileCache<X> {
 
     private final ProfileCacheSettings settings = new ProfileCacheSettings();
-    private final ConcurrentMap<UUID, PayloadProfileController<X>> controllers = new ConcurrentHashMap<>();
+    private final ConcurrentMap<UUID, PayloadProfileController<X>> controllers = new ConcurrentUUIDMap<>();
+    private final Set<X> online = ConcurrentHashMap.newKeySet(); // profiles of players initialized on this server, maintained on join/quit
+    private final Set<X> onlineView = Collections.unmodifiableSet(online);
     private final ProfileStoreLocal<X> localStore = new ProfileStoreLocal<>(this);
     private final ProfileStoreMongo<X> mongoStore = new ProfileStoreMongo<>(this);
+    private final ProfileBatchLoader<X> batchLoader = new ProfileBatchLoader<>(this);
+    private final ProfileDepartedStore<X> departedStore = new ProfileDepartedStore<>(this);
+    private final ProfileLoginStats loginStats = new ProfileLoginStats();
+    private final LoginAdmission loginAdmission = new LoginAdmission(this);
     @Inject private UUIDService uuidService;
+    private final AtomicLong nextLimitPrune = new AtomicLong(0L); // when pruning at maxControllers is next allowed
     private NetworkService<X> networkService = null;
     private ProfileHandshakeService<X> handshakeService = null;
     private ProfileUpdater<X> profileUpdater = null;
@@ -76,6 +96,10 @@ public class PayloadProfileCache<X extends PayloadProfile> extends PayloadCache<
             success = false;
             errorService.capture("Failed to start MongoDB store for cache: " + name);
         }
+        if (settings.isLoginBatchEnabled() && !batchLoader.start()) {
+            success = false;
+            errorService.capture("Failed to start Profile Batch Loader for cache: " + name);
+        }
         database.getMorphia().map(NetworkProfile.class);
 
         if (mode.equals(PayloadMode.NETWORK_NODE)) {
@@ -92,30 +116,27 @@ public class PayloadProfileCache<X extends PayloadProfile> extends PayloadCache<
                 errorService.capture("Failed to start Profile Updater (Network Node mode) for cache: " + name);
             }
         }
+        if (success) {
+            // Players already online (i.e. after a reload) never go through the join listener
+            attachOnline(true);
+        }
         return success;
     }
 
     @Override
     protected boolean terminate() {
         boolean success = true;
-        AtomicInteger failedSaves = new AtomicInteger(0);
-        for (Player player : plugin.getServer().getOnlinePlayers()) {
-            getFromCache(player).ifPresent(payload -> {
-                if (settings.isSetOfflineOnShutdown()) {
-                    getNetworked(payload).ifPresent(networkProfile -> {
-                        networkProfile.markUnloaded(false);
-                        networkService.save(networkProfile);
-                    });
-                }
-                if (!save(payload)) {
-                    failedSaves.getAndIncrement();
-                }
-            });
-        }
-        if (failedSaves.get() > 0) {
+        attachOnline(false);
+        int failedSaves = saveAll(new ArrayList<>(online), settings.isSetOfflineOnShutdown());
+        if (failedSaves > 0) {
             errorService.capture(failedSaves + " objects failed to save during shutdown");
         }
         controllers.clear();
+        online.clear();
+        departedStore.clear();
+        if (batchLoader.isRunning() && !batchLoader.shutdown()) {
+            success = false;
+        }
         if (!localStore.shutdown()) {
             success = false;
         }
@@ -205,12 +226,14 @@ public class PayloadProfileCache<X extends PayloadProfile> extends PayloadCache<
     public void uncache(@Nonnull UUID key) {
         Preconditions.checkNotNull(key);
         getLocalStore().remove(key);
+        releaseController(key);
     }
 
     @Override
     public void uncache(@Nonnull X payload) {
         Preconditions.checkNotNull(payload);
         getLocalStore().remove(payload);
+        releaseController(payload.getUniqueId());
     }
 
     @Override
@@ -240,11 +263,9 @@ public class PayloadProfileCache<X extends PayloadProfile> extends PayloadCache<
         if (player != null && player.isOnline()) {
             return get(player);
         }
-        UUID uuid = uuidService.get(username).orElse(null);
-        if (uuid != null) {
-            if (isCached(uuid)) {
-                return getFromCache(uuid);
-            }
+        Optional<X> cached = localStore.getByUsername(username);
+        if (cached.isPresent()) {
+            return cached;
         }
         return mongoStore.getByUsername(username);
     }
@@ -256,7 +277,7 @@ public class PayloadProfileCache<X extends PayloadProfile> extends PayloadCache<
         if (player != null && player.isOnline()) {
             return isCached(player);
         }
-        return uuidService.get(username).filter(this::isCached).isPresent();
+        return localStore.getUsernameIndex().getKey(username.toLowerCase(Locale.ROOT)).isPresent();
     }
 
     @Override
@@ -264,7 +285,11 @@ public class PayloadProfileCache<X extends PayloadProfile> extends PayloadCache<
         Preconditions.checkNotNull(payload);
         Optional<X> o = getLocalStore().get(payload.getUniqueId());
         if (o.isPresent()) {
-            updatePayloadFromNewer(o.get(), payload);
+            if (o.get() != payload) {
+                updatePayloadFromNewer(o.get(), payload);
+                o.get().setSavedVersion(payload.getSavedVersion());
+            }
+            localStore.reindex(o.get()); // i.e. their username changed
         } else {
             getLocalStore().save(payload);
         }
@@ -285,17 +310,42 @@ public class PayloadProfileCache<X extends PayloadProfile> extends PayloadCache<
     @Override
     public Optional<X> get(@Nonnull UUID uniqueId) {
         Preconditions.checkNotNull(uniqueId);
+        X local = localStore.getIfPresent(uniqueId);
+        if (local != null && (mode.equals(PayloadMode.STANDALONE) || local.isOnline())) {
+            // Local hit: in network node mode only players online here are guaranteed to be current, anyone else goes through the controller
+            return local.asOptional();
+        }
         PayloadProfileController<X> controller = this.controller(uniqueId);
-        controller.setLogin(false);
-        return controller.cache();
+        Optional<X> o = controller.cache();
+        if (controller.getUsername() == null && controller.isIdle()) {
+            // A lookup of a player that isn't logging in or online here; don't keep its controller around
+            controllers.remove(uniqueId, controller);
+        }
+        return o;
     }
 
     @Nonnull
     @Override
     public Set<X> getOnline() {
-        return this.localStore.getLocalCache().values().stream()
-                .filter(PayloadProfile::isOnline)
-                .collect(Collectors.toSet());
+        return this.onlineView;
+    }
+
+    /**
+     * Add a profile to {@link #getOnline()}; called when its player joins and is initialized
+     * @param payload The profile
+     */
+    public void markOnline(@Nonnull X payload) {
+        Preconditions.checkNotNull(payload);
+        this.online.add(payload);
+    }
+
+    /**
+     * Remove a profile from {@link #getOnline()}; called when its player quits
+     * @param payload The profile
+     */
+    public void markOffline(@Nonnull X payload) {
+        Preconditions.checkNotNull(payload);
+        this.online.remove(payload);
     }
 
     @Override
@@ -319,21 +369,11 @@ public class PayloadProfileCache<X extends PayloadProfile> extends PayloadCache<
     @Override
     public Optional<X> getFromCache(@Nonnull String username) {
         Preconditions.checkNotNull(username);
-        UUID uuid = null;
         Player player = plugin.getServer().getPlayerExact(username);
         if (player != null) {
-            uuid = player.getUniqueId();
-        } else {
-            Optional<UUID> o = uuidService.get(username);
-            if (o.isPresent()) {
-                uuid = o.get();
-            }
-        }
-        if (uuid != null) {
-            return getFromCache(uuid);
-        } else {
-            return Optional.empty();
+            return getFromCache(player.getUniqueId());
         }
+        return localStore.getByUsername(username);
     }
 
     @Override
@@ -379,8 +419,9 @@ public class PayloadProfileCache<X extends PayloadProfile> extends PayloadCache<
 
     @Nonnull
     public Set<X> getAll() {
-        final Set<X> all = this.localStore.getAll().stream().filter(PayloadProfile::isOnline).collect(Collectors.toSet());
-        all.addAll(this.mongoStore.getAll().stream().filter(x -> all.stream().noneMatch(x2 -> x.getUniqueId().equals(x2.getUniqueId()))).collect(Collectors.toSet()));
+        final Set<X> all = new HashSet<>(this.online);
+        final Set<UUID> onlineIds = all.stream().map(PayloadProfile::getUniqueId).collect(Collectors.toSet());
+        all.addAll(this.mongoStore.getAll().stream().filter(x -> !onlineIds.contains(x.getUniqueId())).collect(Collectors.toSet()));
         return all;
     }
 
@@ -388,9 +429,70 @@ public class PayloadProfileCache<X extends PayloadProfile> extends PayloadCache<
     @Override
     public PayloadProfileController<X> controller(@Nonnull UUID key) {
         Preconditions.checkNotNull(key);
+        PayloadProfileController<X> controller = controllers.get(key);
+        if (controller != null) {
+            return controller;
+        }
+        if (settings.getMaxControllers() > 0 && controllers.size() >= settings.getMaxControllers()) {
+            // At most once per cleanup interval, unless the last prune freed something
+            long now = System.currentTimeMillis();
+            long next = nextLimitPrune.get();
+            if (now >= next && nextLimitPrune.compareAndSet(next, now + Math.max(1, settings.getCleanupIntervalSeconds()) * 1000L)) {
+                int discarded = pruneControllers(true);
+                if (discarded > 0) {
+                    nextLimitPrune.set(0L);
+                }
+                errorService.debug("Controller limit (" + settings.getMaxControllers() + ") reached, discarded " + discarded + " idle controllers");
+            }
+        }
         return controllers.computeIfAbsent(key, s -> new PayloadProfileController<>(this, s));
     }
 
+    @Override
+    public int controllerCount() {
+        return controllers.size();
+    }
+
+    @Override
+    public int cleanupControllers() {
+        return pruneControllers(false);
+    }
+
+    @Override
+    public int evictForMemory(int max) {
+        departedStore.clear(); // only there to save a reload on a quick reconnect
+        localStore.getColdStore().clear();
+        int evicted = localStore.evictCold(max);
+        pruneControllers(true);
+        return evicted;
+    }
+
+    /**
+     * Discard idle controllers (no load in flight and no online player) that haven't been used for {@link ProfileCacheSettings#getControllerIdleSeconds()}.
+     * @param force Also discard idle controllers that were used recently, unless they belong to a login that hasn't joined yet
+     * @return Number of controllers discarded
+     */
+    private int pruneControllers(boolean force) {
+        final long cutoff = System.currentTimeMillis() - (settings.getControllerIdleSeconds() * 1000L);
+        int discarded = 0;
+        for (Map.Entry<UUID, PayloadProfileController<X>> entry : controllers.entrySet()) {
+            PayloadProfileController<X> controller = entry.getValue();
+            if (controller.isIdle() && (controller.getLastUsed() <= cutoff || (force && controller.getUsername() == null))) {
+                if (controllers.remove(entry.getKey(), controller)) {
+                    discarded++;
+                }
+            }
+        }
+        return discarded;
+    }
+
+    private void releaseController(@Nonnull UUID uuid) {
+        PayloadProfileController<X> controller = controllers.get(uuid);
+        if (controller != null && controller.isIdle()) {
+            controllers.remove(uuid, controller);
+        }
+    }
+
     @Override
     public void saveAsync(@Nonnull X payload) {
         Preconditions.checkNotNull(payload);
@@ -406,8 +508,9 @@ public class PayloadProfileCache<X extends PayloadProfile> extends PayloadCache<
             Optional<NetworkProfile> onp = networkService.get(payload);
             if (onp.isPresent()) {
                 NetworkProfile np = onp.get();
+                final long version = payload.getVersion();
                 if (saveMongo(payload)) {
-                    np.markSaved();
+                    np.markSaved(version, payload.getVersion());
                     if (networkService.save(np)) {
                         return true;
                     } else {
@@ -429,30 +532,102 @@ public class PayloadProfileCache<X extends PayloadProfile> extends PayloadCache<
 
     private boolean saveMongo(@Nonnull X payload) {
         Preconditions.checkNotNull(payload, "Cannot save a null Payload (saveMongo)");
+        final long version = payload.getVersion();
         boolean mongo = mongoStore.save(payload);
-        if (mongo) {
+        onSaveMongo(payload, version, mongo);
+        return mongo;
+    }
+
+    private void onSaveMongo(@Nonnull X payload, long version, boolean saved) {
+        if (saved) {
+            payload.setSavedVersion(version);
             payload.setSaveFailed(false);
             payload.setLastSaveTimestamp(System.currentTimeMillis());
             payload.interact();
         } else {
             payload.setSaveFailed(true);
         }
-        return mongo;
     }
 
     @Override
     public int saveAll() {
+        attachOnline(false);
+        return saveAll(new ArrayList<>(online), false);
+    }
+
+    /**
+     * Add the profiles of online players that aren't in {@link #getOnline()} yet: players that were online before the
+     * cache started, or whose profile wasn't cached when they joined.  Only looks them up when the set is short of the
+     * server's player count.
+     * @param load Load profiles that aren't cached (otherwise only cached profiles are added)
+     */
+    private void attachOnline(boolean load) {
+        Collection<? extends Player> players = plugin.getServer().getOnlinePlayers();
+        if (online.size() >= players.size()) {
+            return;
+        }
+        Set<UUID> attached = online.stream().map(PayloadProfile::getUniqueId).collect(Collectors.toSet());
+        for (Player player : players) {
+            if (attached.contains(player.getUniqueId())) {
+                continue;
+            }
+            X payload = load ? get(player.getUniqueId()).orElse(null) : localStore.getIfPresent(player.getUniqueId());
+            if (payload != null) {
+                controller(player.getUniqueId()).initializeOnJoin(player);
+                errorService.debug("Attached already online player " + player.getName() + " in cache " + name);
+            }
+        }
+    }
+
+    /**
+     * Save profiles in unordered bulk writes (see {@link ProfileCacheSettings#getBulkWriteBatchSize()}),
+     * then update each one's network profile
+     * @param profiles Profiles to save
+     * @param unload Also mark their network profiles as offline (on shutdown)
+     * @return Number of profiles that failed to save
+     */
+    private int saveAll(@Nonnull List<X> profiles, boolean unload) {
         int failures = 0;
-        for (Player p : this.getPlugin().getServer().getOnlinePlayers()) {
-            Optional<X> o = this.get(p);
-            if (o.isPresent()) {
-                X payload = o.get();
+        if (settings.getBulkWriteBatchSize() <= 0) {
+            for (X payload : profiles) {
+                if (unload) {
+                    getNetworked(payload).ifPresent(networkProfile -> {
+                        networkProfile.markUnloaded(false);
+                        networkService.save(networkProfile);
+                    });
+                }
                 payload.interact();
                 if (!this.save(payload)) {
                     failures++;
                 }
-            } else {
+            }
+            return failures;
+        }
+        Map<X, Long> versions = new IdentityHashMap<>(profiles.size());
+        for (X payload : profiles) {
+            versions.put(payload, payload.getVersion());
+        }
+        BulkSaver.Result result = mongoStore.saveAll(profiles);
+        for (X payload : profiles) {
+            final long version = versions.get(payload);
+            final boolean saved = !result.isFailed(payload);
+            onSaveMongo(payload, version, saved);
+            if (!saved) {
                 failures++;
+                errorService.capture("Failed to save profile " + payload.getName() + ": Failed to save to database (bulk save)");
+            }
+            if ((saved && mode.equals(PayloadMode.NETWORK_NODE)) || unload) {
+                getNetworked(payload).ifPresent(networkProfile -> {
+                    if (saved && mode.equals(PayloadMode.NETWORK_NODE)) {
+                        networkProfile.markSaved(version, payload.getVersion());
+                    }
+                    if (unload) {
+                        networkProfile.markUnloaded(false);
+                    }
+                    if (!networkService.save(networkProfile)) {
+                        errorService.capture("Failed to save network profile of " + payload.getName() + " after bulk save");
+                    }
+                });
             }
         }
         return failures;
@@ -497,6 +672,16 @@ public class PayloadProfileCache<X extends PayloadProfile> extends PayloadCache<
         }
     }
 
+    @Override
+    public void onDirty(@Nonnull X payload) {
+        Preconditions.checkNotNull(payload);
+        if (mode.equals(PayloadMode.NETWORK_NODE) && settings.isSkipHandshakeWhenSaved()) {
+            // Only published on the first change after a save, so that joining servers know to handshake.
+            // A single field write sent before markDirty() returns (without waiting for it), not a rewrite of the NetworkProfile
+            networkService.publishDirty(payload.getUniqueId(), payload.getVersion());
+        }
+    }
+
     @Override
     public NetworkProfile createNetworked() {
         return injector.getInstance(NetworkProfile.class);
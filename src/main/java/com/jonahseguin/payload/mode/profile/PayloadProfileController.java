@@ -9,36 +9,43 @@ import com.google.common.base.Preconditions;
 import com.jonahseguin.payload.PayloadMode;
 import com.jonahseguin.payload.base.lang.PLang;
 import com.jonahseguin.payload.base.type.PayloadController;
+import com.jonahseguin.payload.mode.profile.handshake.ProfileHandshakePacket;
 import com.jonahseguin.payload.mode.profile.network.NetworkProfile;
+import com.jonahseguin.payload.mode.profile.stats.LoginStage;
+import com.jonahseguin.payload.mode.profile.stats.LoginTrace;
 import com.jonahseguin.payload.server.PayloadServer;
 import lombok.Getter;
-import lombok.Setter;
 import org.bukkit.ChatColor;
 import org.bukkit.entity.Player;
 
 import javax.annotation.Nonnull;
 import java.util.Optional;
 import java.util.UUID;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 
+/**
+ * Caches a single profile by UUID.  Controllers are shared between threads (the pre-login thread, plugin threads calling
+ * {@link PayloadProfileCache#get(UUID)}, etc.), so each caching operation keeps its own state in a {@link ProfileLoad}
+ * and concurrent operations for the same UUID share the one that is already in flight.
+ */
 @Getter
-@Setter
 public class PayloadProfileController<X extends PayloadProfile> implements PayloadController<X> {
 
     private final PayloadProfileCache<X> cache;
     private final UUID uuid;
-    private String username = null;
-    private String loginIp = null;
-    private boolean login = false; // whether this controller is being used during a login operation
-    private boolean denyJoin = false;
-    private String joinDenyReason = ChatColor.RED + "A caching error occurred.  Please try again.";
-    private X payload = null;
-    private Player player = null;
-    private boolean failure = false;
-    private int timeoutAttempts = 0;
-
-    private long handshakeRequestStartTime = 0L;
-    private boolean handshakeTimedOut = false;
-    private boolean handshakeComplete = false;
+    private final AtomicReference<ProfileLoad<X>> inFlight = new AtomicReference<>();
+    private final AtomicInteger timeoutAttempts = new AtomicInteger(0);
+    private volatile String username = null;
+    private volatile String loginIp = null;
+    private volatile X payload = null;
+    private volatile Player player = null;
+    private volatile long lastUsed = System.currentTimeMillis();
 
     PayloadProfileController(@Nonnull PayloadProfileCache<X> cache, @Nonnull UUID uuid) {
         Preconditions.checkNotNull(cache);
@@ -47,43 +54,105 @@ public class PayloadProfileController<X extends PayloadProfile> implements Paylo
         this.uuid = uuid;
     }
 
-    public void reset() {
-        denyJoin = false;
-        payload = null;
-        failure = false;
-
-        handshakeComplete = false;
-        handshakeRequestStartTime = 0L;
-        handshakeTimedOut = false;
-    }
-
-    public void login(@Nonnull String username, @Nonnull String loginIp) {
-        this.login = true;
+    /**
+     * Cache this profile for a login
+     * @param username The player's username
+     * @param loginIp The player's IP address
+     * @return The result of the login load; check {@link ProfileLoad#isDenyJoin()} before allowing the login
+     */
+    @Nonnull
+    public ProfileLoad<X> login(@Nonnull String username, @Nonnull String loginIp) {
+        Preconditions.checkNotNull(username);
+        Preconditions.checkNotNull(loginIp);
         this.username = username;
         this.loginIp = loginIp;
+        return run(new ProfileLoad<>(true, username, loginIp));
     }
-    
+
     @Override
     public Optional<X> cache() {
-        reset();
+        return Optional.ofNullable(run(new ProfileLoad<>(false, username, null)).getPayload());
+    }
+
+    /**
+     * Run a load, or share the result of the one already in flight for this UUID.
+     * A lookup can use the result of any in-flight load; a login waits for an in-flight lookup and then runs its own,
+     * since only a login marks the profile as loaded on this server (and creates it if it doesn't exist).
+     */
+    private ProfileLoad<X> run(@Nonnull ProfileLoad<X> load) {
+        lastUsed = System.currentTimeMillis();
+        while (true) {
+            ProfileLoad<X> current = inFlight.get();
+            if (current != null) {
+                if (current.getThread() == Thread.currentThread()) {
+                    // Re-entrant call while loading on this thread; waiting on ourselves would never finish
+                    execute(load);
+                    return load;
+                }
+                ProfileLoad<X> result = current.getCompletion().join();
+                if (!load.isLogin() || result.isLogin()) {
+                    cache.getErrorService().debug("Shared in-flight " + (result.isLogin() ? "login" : "lookup") + " for " + uuid.toString());
+                    return result;
+                }
+                continue;
+            }
+            if (inFlight.compareAndSet(null, load)) {
+                try {
+                    execute(load);
+                } finally {
+                    inFlight.compareAndSet(load, null);
+                    load.getCompletion().complete(load);
+                }
+                return load;
+            }
+        }
+    }
 
-        if (uuid != null && username != null) {
+    private void execute(@Nonnull ProfileLoad<X> load) {
+        try {
+            doCache(load);
+            if (load.getPayload() != null) {
+                this.payload = load.getPayload();
+            }
+        } catch (RuntimeException ex) {
+            load.setFailure(true);
+            load.setPayload(null);
+            if (load.isLogin()) {
+                load.deny(ChatColor.RED + "A caching error occurred.  Please try again.");
+            }
+            throw ex;
+        } finally {
+            LoginTrace trace = load.getTrace();
+            if (trace != null) {
+                trace.finish();
+                cache.getLoginStats().record(trace);
+                long threshold = cache.getSettings().getSlowLoginThresholdMillis();
+                if (threshold > 0 && trace.getTotalMillis() >= threshold) {
+                    cache.getErrorService().capture("Slow login for " + load.getUsername() + " (" + uuid.toString() + ") in cache " + cache.getName() + ": " + trace.getTotalMillis() + "ms [" + trace.breakdown() + "]");
+                }
+            }
+        }
+    }
+
+    private void doCache(@Nonnull ProfileLoad<X> load) {
+        if (load.getUsername() != null) {
             // Map their UUID to Username
-            cache.getUuidService().save(uuid, username);
+            long start = traceStart(load);
+            cache.getUuidService().save(uuid, load.getUsername());
+            traceStop(load, LoginStage.UUID_SAVE, start);
         }
 
-        if (login) {
+        if (load.isLogin()) {
             if (!cache.getDatabase().getState().canCacheFunction(cache)) {
-                denyJoin = true;
-                joinDenyReason = cache.getLang().format(PLang.JOIN_DENY_DATABASE, cache.getName());
-                return Optional.empty();
+                load.deny(cache.getLang().format(PLang.JOIN_DENY_DATABASE, cache.getName()));
+                return;
             }
         }
 
         if (cache.getMode().equals(PayloadMode.STANDALONE)) {
-            return cacheStandalone();
+            cacheStandalone(load);
         } else if (cache.getMode().equals(PayloadMode.NETWORK_NODE)) {
-            return cacheNetworkNode();
+            cacheNetworkNode(load);
         } else {
             throw new UnsupportedOperationException("Unknown cache mode: " + cache.getMode().toString());
         }
@@ -95,9 +164,14 @@ public class PayloadProfileController<X extends PayloadProfile> implements Paylo
             Optional<NetworkProfile> o = cache.getNetworkService().get(payload);
             if (o.isPresent()) {
                 NetworkProfile networkProfile = o.get();
-                networkProfile.markUnloaded(switchingServers);
-                cache.getNetworkService().save(networkProfile);
-                cache.getErrorService().debug("Set NetworkProfile to offline for " + payload.getName());
+                if (!switchingServers && networkProfile.isOnlineOtherServer()) {
+                    // Another server already loaded them without a handshake; don't mark them offline over the top of it
+                    cache.getErrorService().debug("Not setting NetworkProfile to offline for " + payload.getName() + ", already loaded on " + networkProfile.getLastSeenServer());
+                } else {
+                    networkProfile.markUnloaded(switchingServers);
+                    cache.getNetworkService().save(networkProfile);
+                    cache.getErrorService().debug("Set NetworkProfile to offline for " + payload.getName());
+                }
             } else {
                 cache.getErrorService().capture("Couldn't set NetworkProfile to offline for player " + payload.getName() + ", no NetworkProfile was found");
             }
@@ -107,173 +181,251 @@ public class PayloadProfileController<X extends PayloadProfile> implements Paylo
         }
     }
 
-    private Optional<X> cacheStandalone() {
+    private void cacheStandalone(@Nonnull ProfileLoad<X> load) {
         // Iterate each layer in order
+        long loadStart = traceStart(load);
         Optional<X> localO = cache.getLocalStore().get(uuid);
+        if (!localO.isPresent() && load.isLogin() && cache.getDepartedStore().has(uuid)) {
+            // Reconnecting shortly after logging out
+            localO = cache.getNetworked(uuid).flatMap(np -> cache.getDepartedStore().reclaim(uuid, np));
+            localO.ifPresent(cache::cache);
+        }
         if (localO.isPresent()) {
-            payload = localO.get();
+            load.setPayload(localO.get());
+            traceStop(load, LoginStage.DATABASE_LOAD, loadStart);
+            if (load.isLogin()) {
+                cache.getDepartedStore().remove(uuid);
+            }
         }
         else {
-            Optional<X> o = cache.getMongoStore().get(uuid);
+            Optional<X> o = loadFromDatabase(load);
+            traceStop(load, LoginStage.DATABASE_LOAD, loadStart);
 
             if (!o.isPresent()) {
                 // Failed to load from all layers
 
                 // If there was a failure/error, start failure handling instead of making a new profile
-                if (failure || !cache.getDatabase().getState().canCacheFunction(cache)) {
-                    denyJoin = true;
-                    joinDenyReason = ChatColor.RED + "The database is currently offline.  Please try again soon.";
-                    payload = null;
-                } else if (login) {
+                if (load.isFailure() || !cache.getDatabase().getState().canCacheFunction(cache)) {
+                    load.deny(ChatColor.RED + "The database is currently offline.  Please try again soon.");
+                    load.setPayload(null);
+                } else if (load.isLogin()) {
                     // Only make a new profile if they are logging in
-                    getCache().getErrorService().debug("Creating a new profile for Payload " + username);
+                    getCache().getErrorService().debug("Creating a new profile for Payload " + load.getUsername());
                     // Otherwise make a new profile
-                    payload = cache.getInstantiator().instantiate(cache.getInjector());
-                    if (username != null) {
-                        payload.setUsername(username);
+                    X created = cache.getInstantiator().instantiate(cache.getInjector());
+                    if (load.getUsername() != null) {
+                        created.setUsername(load.getUsername());
                     }
-                    payload.setUUID(uuid);
-                    payload.setLoginIp(loginIp);
-                    payload.setLoadingSource("New Profile");
-                    cache.saveAsync(payload);
+                    created.setUUID(uuid);
+                    created.setLoginIp(load.getLoginIp());
+                    created.setLoadingSource("New Profile");
+                    load.setPayload(created);
+                    cache.saveAsync(created);
                 }
                 // If they aren't logging in (getting a payload by UUID/username) and it wasn't found, return null as they don't exist.
             } else {
-                payload = o.get();
+                load.setPayload(o.get());
             }
+            X payload = load.getPayload();
             if (payload != null) {
-                if (login) {
-                    timeoutAttempts = 0;
+                if (load.isLogin()) {
+                    timeoutAttempts.set(0);
 
+                    long networkStart = traceStart(load);
                     Optional<NetworkProfile> oNP = cache.getNetworked(payload);
                     NetworkProfile networkProfile = oNP.orElseGet(() -> cache.getNetworkService().create(payload));
+                    traceStop(load, LoginStage.NETWORK_LOOKUP, networkStart);
 
                     if (networkProfile != null) {
-                        networkProfile.markLoaded(login);
+                        networkProfile.markLoaded(true);
                         cache.runAsync(() -> cache.getNetworkService().save(networkProfile));
                     }
 
                     // Update their login ip
-                    if (loginIp != null) {
-                        payload.setLoginIp(loginIp);
+                    if (load.getLoginIp() != null) {
+                        payload.setLoginIp(load.getLoginIp());
                     }
-                    if (username != null) {
-                        payload.setUsername(username); // Update their username
+                    if (load.getUsername() != null) {
+                        payload.setUsername(load.getUsername()); // Update their username
                     }
                 }
 
                 // Cache the Payload if successful
+                long cacheStart = traceStart(load);
                 cache.cache(payload);
+                traceStop(load, LoginStage.CACHE, cacheStart);
             }
         }
+    }
 
-        return Optional.ofNullable(payload);
+    private void load(@Nonnull ProfileLoad<X> load, boolean local) {
+        long start = traceStart(load);
+        try {
+            doLoad(load, local);
+        } finally {
+            traceStop(load, LoginStage.DATABASE_LOAD, start);
+        }
     }
 
-    private void load(boolean local) {
+    private void doLoad(@Nonnull ProfileLoad<X> load, boolean local) {
         if (local) {
             Optional<X> o = cache.getLocalStore().get(uuid);
             if (o.isPresent()) {
-                payload = o.get();
+                load.setPayload(o.get());
                 return;
             }
         }
-        Optional<X> o = cache.getMongoStore().get(uuid);
+        Optional<X> o = loadFromDatabase(load);
         if (o.isPresent()) {
-            payload = o.get();
+            load.setPayload(o.get());
         } else {
-            if (login) {
+            if (load.isFailure()) {
+                // Don't create a new profile over the top of one we failed to load
+                load.setPayload(null);
+                if (load.isLogin()) {
+                    load.deny(ChatColor.RED + "The database is currently offline.  Please try again soon.");
+                }
+            } else if (load.isLogin()) {
                 // Create
-                payload = cache.getInstantiator().instantiate(cache.getInjector());
-                if (username != null) {
-                    payload.setUsername(username);
+                X created = cache.getInstantiator().instantiate(cache.getInjector());
+                if (load.getUsername() != null) {
+                    created.setUsername(load.getUsername());
                 }
-                payload.setUUID(uuid);
-                if (loginIp != null) {
-                    payload.setLoginIp(loginIp);
+                created.setUUID(uuid);
+                if (load.getLoginIp() != null) {
+                    created.setLoginIp(load.getLoginIp());
                 }
-                payload.setLoadingSource("New Profile");
+                created.setLoadingSource("New Profile");
+                load.setPayload(created);
             } else {
                 // Doesn't exist
-                payload = null;
+                load.setPayload(null);
             }
         }
 
     }
 
-    private Optional<X> cacheNetworkNode() {
-        if (!login) {
+    private Optional<X> loadFromDatabase(@Nonnull ProfileLoad<X> load) {
+        if (load.isLogin() && cache.getBatchLoader().isRunning()) {
+            // Concurrent logins share a single query
+            try {
+                return cache.getBatchLoader().load(uuid).get(cache.getSettings().getLoginBatchTimeoutMillis(), TimeUnit.MILLISECONDS);
+            } catch (TimeoutException ex) {
+                cache.getErrorService().debug("Batch load of UUID " + uuid.toString() + " timed out, loading it directly");
+            } catch (InterruptedException ex) {
+                cache.getErrorService().capture(ex, "Interrupted in PayloadProfileController while batch loading UUID: " + uuid.toString());
+                Thread.currentThread().interrupt();
+                load.setFailure(true);
+                return Optional.empty();
+            } catch (ExecutionException ex) {
+                load.setFailure(true);
+                return Optional.empty();
+            }
+        }
+        return cache.getMongoStore().get(uuid);
+    }
+
+    private void cacheNetworkNode(@Nonnull ProfileLoad<X> load) {
+        if (!load.isLogin()) {
             Player player = cache.getPlugin().getServer().getPlayer(uuid);
             if (player != null && player.isOnline()) {
-                load(true);
+                load(load, true);
                 // Just getting them from the cache when they are online, skip all the other shit and just return this.
                 // For performance :)
-                if (payload != null) {
+                if (load.getPayload() != null) {
                     if (!cache.isCached(uuid)) {
-                        cache.cache(payload);
+                        cache.cache(load.getPayload());
                     }
-                    return Optional.of(payload);
+                    return;
                 }
             }
         }
 
+        long networkStart = traceStart(load);
         NetworkProfile networkProfile = cache.getNetworkService().get(uuid).orElse(null);
-        cache.getErrorService().debug("Caching Payload [network-node] " + uuid.toString() + " (login: " + login + ")");
-        if (networkProfile != null) {
-            if (networkProfile.isOnlineOtherServer()) {
+        traceStop(load, LoginStage.NETWORK_LOOKUP, networkStart);
+        cache.getErrorService().debug("Caching Payload [network-node] " + uuid.toString() + " (login: " + load.isLogin() + ")");
+        Optional<X> departed = Optional.empty();
+        if (networkProfile != null && load.isLogin()) {
+            departed = cache.getDepartedStore().reclaim(uuid, networkProfile);
+        }
+        if (departed.isPresent()) {
+            // Reconnecting shortly after logging out, and no other server has loaded them since
+            cache.getErrorService().debug("Reusing departed profile for " + uuid.toString() + " (reconnected within grace period)");
+            load.setPayload(departed.get());
+        } else if (networkProfile != null) {
+            if (networkProfile.isOnlineOtherServer() && cache.getSettings().isSkipHandshakeWhenSaved() && networkProfile.isStoredCopyCurrent()) {
+                // The server they're on has saved every change, so the database copy is already current
+                cache.getErrorService().debug("Skipping handshake for " + uuid.toString() + ", stored copy is current (version " + networkProfile.getLastSavedVersion() + ")");
+                load(load, false);
+            } else if (networkProfile.isOnlineOtherServer()) {
                 PayloadServer server = cache.getServerService().get(networkProfile.getLastSeenServer()).orElse(null);
-                if (server != null && server.isOnline()) {
-                    // Handshake
-                    cache.getErrorService().debug("Handshaking " + uuid.toString() + " from server " + server.getName());
-                    handshake(server);
-                    if (handshakeComplete && !handshakeTimedOut) {
-                        timeoutAttempts = 0;
-                        cache.getErrorService().debug("Handshake complete for " + uuid.toString() + ", loading from DB");
-                        load(false);
+                if (server != null && server.isOnline() && !cache.getHandshakeService().allowHandshake(server)) {
+                    // Recent handshakes with this server timed out; don't stall the join waiting on it again
+                    cache.getErrorService().debug("Handshake circuit breaker open for server " + server.getName() + ", loading " + uuid.toString() + " from database");
+                    load(load, false);
+                } else if (server != null && server.isOnline()) {
+                    // Handshake (the breaker's half-open trial, if any, is released by handshake() whatever happens)
+                    long handshakeStart = traceStart(load);
+                    handshake(load, server);
+                    traceStop(load, LoginStage.HANDSHAKE, handshakeStart);
+                    if (load.isHandshakeComplete() && !load.isHandshakeTimedOut()) {
+                        timeoutAttempts.set(0);
+                        long readStart = traceStart(load);
+                        Optional<X> shipped = load.getHandshakeReply() != null ? cache.getHandshakeService().readPayload(load.getHandshakeReply()) : Optional.empty();
+                        traceStop(load, LoginStage.DATABASE_LOAD, readStart);
+                        if (shipped.isPresent()) {
+                            cache.getErrorService().debug("Handshake complete for " + uuid.toString() + ", using profile from handshake reply");
+                            load.setPayload(shipped.get());
+                        } else {
+                            cache.getErrorService().debug("Handshake complete for " + uuid.toString() + ", loading from DB");
+                            load(load, false);
+                        }
                     } else {
                         // Timed out
-                        timeoutAttempts++;
-                        if (timeoutAttempts >= cache.getSettings().getHandshakeTimeOutAttemptsAllowJoin()) {
-                            timeoutAttempts = 0;
-                            load(false);
+                        if (timeoutAttempts.incrementAndGet() >= cache.getSettings().getHandshakeTimeOutAttemptsAllowJoin()) {
+                            timeoutAttempts.set(0);
+                            load(load, false);
                             // They timed out past the max threshold specified, allow them to join / load from database
                         } else {
-                            denyJoin = true;
-                            joinDenyReason = ChatColor.RED + "Timed out while loading your profile.  Please try again.";
+                            load.deny(ChatColor.RED + "Timed out while loading your profile.  Please try again.");
                             cache.getErrorService().debug("Handshake timed out for " + uuid.toString());
                         }
                     }
                 } else {
                     // Target server isn't online, or there is no recent server
                     cache.getErrorService().debug("Target server '" + (server != null ? server.getName() : "n/a") + "' not online for handshake for " + uuid.toString() + ", loading from database");
-                    load(false);
+                    load(load, false);
                 }
             } else {
-                load(networkProfile.isOnlineThisServer()); // only load from local if they're online this server
+                load(load, networkProfile.isOnlineThisServer()); // only load from local if they're online this server
             }
         } else {
             // Create the network profile
-            load(true);
-            if (payload != null) {
-                if (login) {
-                    networkProfile = cache.getNetworkService().create(payload);
+            load(load, true);
+            if (load.getPayload() != null) {
+                if (load.isLogin()) {
+                    networkProfile = cache.getNetworkService().create(load.getPayload());
                 }
             }
         }
 
+        X payload = load.getPayload();
         if (payload != null) {
-            if (login || cache.getSettings().isAlwaysCacheOnLoadNetworkNode()) {
+            if (load.isLogin() || cache.getSettings().isAlwaysCacheOnLoadNetworkNode()) {
+                long cacheStart = traceStart(load);
                 cache.cache(payload);
+                traceStop(load, LoginStage.CACHE, cacheStart);
             }
-            if (username != null && !payload.getUsername().equalsIgnoreCase(username)) {
-                cache.getErrorService().debug("Updated username: " + payload.getUsername() + " to " + username);
-                payload.setUsername(username);
+            if (load.getUsername() != null && !payload.getUsername().equalsIgnoreCase(load.getUsername())) {
+                cache.getErrorService().debug("Updated username: " + payload.getUsername() + " to " + load.getUsername());
+                payload.setUsername(load.getUsername());
                 if (!cache.save(payload)) {
                     cache.getErrorService().capture("Error saving Payload during caching after username update: " + payload.getUsername());
                 }
             }
-            if (login) {
-                timeoutAttempts = 0;
+            if (load.isLogin()) {
+                timeoutAttempts.set(0);
                 if (networkProfile == null) {
                     networkProfile = cache.getNetworkService().create(payload);
                 }
@@ -283,34 +435,80 @@ public class PayloadProfileController<X extends PayloadProfile> implements Paylo
                 cache.runAsync(() -> cache.getNetworkService().save(finalNetworkProfile));
             }
         }
-        return Optional.ofNullable(payload);
     }
 
     public void initializeOnJoin(Player player) {
         this.player = player;
+        this.lastUsed = System.currentTimeMillis();
+        X payload = this.payload;
         if (payload == null) {
             payload = cache.getFromCache(player).orElse(null);
+            this.payload = payload;
         }
         if (payload != null) {
             cache.getErrorService().debug("called initializeOnJoin() in controller for " + player.getName());
             payload.initializePlayer(player);
+            cache.markOnline(payload);
         } else {
             cache.getErrorService().debug("failed to call initializeOnJoin() for " + player.getName() + " (payload is null in controller)");
         }
     }
 
-    private void handshake(@Nonnull PayloadServer targetServer) {
-        cache.getHandshakeService().handshake(this, targetServer);
-        while (!handshakeComplete && ((System.currentTimeMillis() - handshakeRequestStartTime) / 1000) < cache.getSettings().getHandshakeTimeoutSeconds()) {
+    /**
+     * @return true if no load is in flight and no online player is attached to this controller
+     */
+    public boolean isIdle() {
+        Player player = this.player;
+        return inFlight.get() == null && (player == null || !player.isOnline());
+    }
+
+    private long traceStart(@Nonnull ProfileLoad<X> load) {
+        return load.getTrace() != null ? load.getTrace().start() : 0L;
+    }
+
+    private void traceStop(@Nonnull ProfileLoad<X> load, @Nonnull LoginStage stage, long start) {
+        if (load.getTrace() != null) {
+            load.getTrace().stop(stage, start);
+        }
+    }
+
+    private void handshake(@Nonnull ProfileLoad<X> load, @Nonnull PayloadServer targetServer) {
+        boolean recorded = false;
+        try {
+            cache.getErrorService().debug("Handshaking " + uuid.toString() + " from server " + targetServer.getName());
+            load.setHandshakeRequestStartTime(System.currentTimeMillis());
+            final long start = System.nanoTime();
+            final long timeout = cache.getHandshakeService().getTimeoutMillis(targetServer);
+            CompletableFuture<ProfileHandshakePacket> future = cache.getHandshakeService().handshake(uuid, targetServer);
             try {
-                Thread.sleep(100);
+                load.setHandshakeReply(future.get(timeout, TimeUnit.MILLISECONDS));
+                final long elapsed = System.nanoTime() - start;
+                load.setHandshakeComplete(true);
+                load.setHandshakeTimedOut(false);
+                load.setHandshakeRoundTripTime(TimeUnit.NANOSECONDS.toMillis(elapsed));
+                cache.getHandshakeService().recordSuccess(targetServer, elapsed);
+                recorded = true;
+                cache.getErrorService().debug("Handshake reply for " + uuid.toString() + " from server " + targetServer.getName() + " received in " + load.getHandshakeRoundTripTime() + "ms");
+            } catch (TimeoutException ex) {
+                load.setHandshakeTimedOut(true);
+                cache.getHandshakeService().cancel(uuid, future);
+                cache.getHandshakeService().recordTimeout(targetServer);
+                recorded = true;
+                cache.getErrorService().debug("Handshake with server " + targetServer.getName() + " for " + uuid.toString() + " timed out after " + timeout + "ms");
             } catch (InterruptedException ex) {
                 cache.getErrorService().capture(ex, "Interrupted in PayloadProfileController while waiting for handshake for UUID: " + uuid.toString());
-                break;
+                load.setHandshakeTimedOut(true);
+                cache.getHandshakeService().cancel(uuid, future);
+                Thread.currentThread().interrupt();
+            } catch (ExecutionException | CancellationException ex) {
+                cache.getErrorService().capture(ex, "Handshake failed in PayloadProfileController for UUID: " + uuid.toString());
+                load.setHandshakeTimedOut(true);
+            }
+        } finally {
+            if (!recorded) {
+                // Failed without an outcome (including before the request was sent); frees the breaker's half-open trial
+                cache.getHandshakeService().recordFailure(targetServer);
             }
-        }
-        if (!handshakeComplete) {
-            handshakeTimedOut = true;
         }
     }
 
@@ -7,9 +7,11 @@ package com.jonahseguin.payload.mode.profile;
 
 import com.jonahseguin.payload.base.Cache;
 import com.jonahseguin.payload.base.PayloadCallback;
+import com.jonahseguin.payload.mode.profile.admission.LoginAdmission;
 import com.jonahseguin.payload.mode.profile.network.NetworkProfile;
 import com.jonahseguin.payload.mode.profile.network.NetworkService;
 import com.jonahseguin.payload.mode.profile.settings.ProfileCacheSettings;
+import com.jonahseguin.payload.mode.profile.stats.ProfileLoginStats;
 import org.bukkit.entity.Player;
 
 import javax.annotation.Nonnull;
@@ -57,4 +59,12 @@ public interface ProfileCache<X extends PayloadProfile> extends Cache<UUID, X> {
 
     NetworkProfile createNetworked();
 
+    void onDirty(@Nonnull X payload);
+
+    @Nonnull
+    ProfileLoginStats getLoginStats();
+
+    @Nonnull
+    LoginAdmission getLoginAdmission();
+
 }
@@ -0,0 +1,55 @@
+/*
+ * Copyright (c) 2020 Jonah Seguin.  All rights reserved.  You may not modify, decompile, distribute or use any code/text contained in this document(plugin) without explicit signed permission from Jonah Seguin.
+ * www.jonahseguin.com
+ */
+
+package com.jonahseguin.payload.mode.profile;
+
+import com.jonahseguin.payload.mode.profile.handshake.ProfileHandshakePacket;
+import com.jonahseguin.payload.mode.profile.stats.LoginTrace;
+import lombok.Getter;
+import lombok.Setter;
+import org.bukkit.ChatColor;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * The state of a single {@link PayloadProfileController} caching operation (a login or a lookup).
+ * Concurrent callers for the same UUID share one in-flight load, so everything here belongs to that one operation
+ * and is never reused for the next.
+ */
+@Getter
+@Setter
+public class ProfileLoad<X extends PayloadProfile> {
+
+    private final boolean login; // whether this load is for a login operation
+    private final String username;
+    private final String loginIp;
+    private final Thread thread = Thread.currentThread();
+    private final CompletableFuture<ProfileLoad<X>> completion = new CompletableFuture<>();
+    private final LoginTrace trace; // per-stage timings, only for logins
+
+    private volatile X payload = null;
+    private volatile boolean denyJoin = false;
+    private volatile String joinDenyReason = ChatColor.RED + "A caching error occurred.  Please try again.";
+    private volatile boolean failure = false;
+
+    private volatile long handshakeRequestStartTime = 0L;
+    private volatile boolean handshakeTimedOut = false;
+    private volatile boolean handshakeComplete = false;
+    private volatile long handshakeRoundTripTime = 0L; // milliseconds between publishing the request and receiving the reply
+    private volatile ProfileHandshakePacket handshakeReply = null;
+
+    ProfileLoad(boolean login, String username, String loginIp) {
+        this.login = login;
+        this.username = username;
+        this.loginIp = loginIp;
+        this.trace = login ? new LoginTrace() : null;
+    }
+
+    public void deny(String reason) {
+        this.denyJoin = true;
+        this.joinDenyReason = reason;
+    }
+
+}
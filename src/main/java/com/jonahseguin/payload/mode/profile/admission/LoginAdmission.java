@@ -0,0 +1,177 @@
+/*
+ * Copyright (c) 2020 Jonah Seguin.  All rights reserved.  You may not modify, decompile, distribute or use any code/text contained in this document(plugin) without explicit signed permission from Jonah Seguin.
+ * www.jonahseguin.com
+ */
+
+package com.jonahseguin.payload.mode.profile.admission;
+
+import com.google.common.base.Preconditions;
+import com.jonahseguin.payload.base.metrics.LatencyHistogram;
+import com.jonahseguin.payload.mode.profile.ProfileCache;
+import com.jonahseguin.payload.mode.profile.settings.ProfileCacheSettings;
+import com.jonahseguin.payload.mode.profile.stats.LoginStage;
+import lombok.Getter;
+
+import javax.annotation.Nonnull;
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounds the number of profile loads in flight for a cache during logins.
+ * Logins beyond {@link ProfileCacheSettings#getLoginMaxConcurrentLoads()} wait in a FIFO queue (UUIDs in
+ * {@link ProfileCacheSettings#getLoginPriorityUuids()} in a separate queue that is always served first), and are
+ * rejected instead of blocking once the queue is full or they can't be admitted within
+ * {@link ProfileCacheSettings#getLoginQueueBudgetMillis()}.
+ */
+public class LoginAdmission {
+
+    private static final int MIN_SAMPLES = 20; // login samples required before estimating the queue wait
+
+    private final ProfileCache<?> cache;
+    private final Object lock = new Object();
+    private final Deque<CompletableFuture<Boolean>> priorityQueue = new ArrayDeque<>();
+    private final Deque<CompletableFuture<Boolean>> queue = new ArrayDeque<>();
+    @Getter private final LatencyHistogram waitTime = new LatencyHistogram();
+    @Getter private final AtomicLong admitted = new AtomicLong(0L);
+    @Getter private final AtomicLong rejected = new AtomicLong(0L);
+    private int inFlight = 0;
+    private volatile List<String> priorityList = null; // the settings list prioritySet was parsed from
+    private volatile int priorityHash = 0;
+    private volatile Set<UUID> prioritySet = Collections.emptySet();
+
+    public LoginAdmission(@Nonnull ProfileCache<?> cache) {
+        Preconditions.checkNotNull(cache);
+        this.cache = cache;
+    }
+
+    /**
+     * Wait for a permit to load a profile during login.  Must be followed by {@link #release()} if admitted.
+     * @param uuid UUID of the player logging in
+     * @param startNanos {@link System#nanoTime()} when the login started, the budget is measured from here
+     * @return true if admitted, false if the login should be denied (queue full, or over the latency budget)
+     */
+    public boolean acquire(@Nonnull UUID uuid, long startNanos) {
+        Preconditions.checkNotNull(uuid);
+        ProfileCacheSettings settings = cache.getSettings();
+        int max = settings.getLoginMaxConcurrentLoads();
+        if (max <= 0) {
+            admitted.incrementAndGet();
+            return true;
+        }
+        long remaining = TimeUnit.MILLISECONDS.toNanos(settings.getLoginQueueBudgetMillis()) - (System.nanoTime() - startNanos);
+        boolean priority = getPriorityUuids().contains(uuid);
+        CompletableFuture<Boolean> waiter;
+        synchronized (lock) {
+            if (inFlight < max && priorityQueue.isEmpty() && (priority || queue.isEmpty())) {
+                inFlight++;
+                waitTime.recordNanos(System.nanoTime() - startNanos);
+                admitted.incrementAndGet();
+                return true;
+            }
+            // Priority logins only wait behind each other; the others wait behind both queues
+            int depth = priority ? priorityQueue.size() : priorityQueue.size() + queue.size();
+            if (depth >= settings.getLoginMaxQueueSize() || remaining <= 0 || estimateWaitNanos(depth + 1, max) > remaining) {
+                rejected.incrementAndGet();
+                cache.getErrorService().debug("Rejected login of " + uuid.toString() + " in cache " + cache.getName() + " (" + depth + " queued, " + inFlight + " loading)");
+                return false;
+            }
+            waiter = new CompletableFuture<>();
+            (priority ? priorityQueue : queue).addLast(waiter);
+        }
+        try {
+            waiter.get(remaining, TimeUnit.NANOSECONDS);
+            waitTime.recordNanos(System.nanoTime() - startNanos);
+            admitted.incrementAndGet();
+            return true;
+        } catch (TimeoutException | InterruptedException | ExecutionException ex) {
+            if (ex instanceof InterruptedException) {
+                Thread.currentThread().interrupt();
+            }
+            synchronized (lock) {
+                if (!priorityQueue.remove(waiter) && !queue.remove(waiter)) {
+                    // Granted a permit at the same time as we gave up on it; hand it on
+                    releaseLocked();
+                }
+            }
+            rejected.incrementAndGet();
+            cache.getErrorService().debug("Login of " + uuid.toString() + " in cache " + cache.getName() + " exceeded the queue budget of " + settings.getLoginQueueBudgetMillis() + "ms");
+            return false;
+        }
+    }
+
+    public void release() {
+        if (cache.getSettings().getLoginMaxConcurrentLoads() <= 0) {
+            return;
+        }
+        synchronized (lock) {
+            releaseLocked();
+        }
+    }
+
+    private void releaseLocked() {
+        CompletableFuture<Boolean> next = priorityQueue.pollFirst();
+        if (next == null) {
+            next = queue.pollFirst();
+        }
+        if (next != null) {
+            // The permit is handed straight to the next waiter
+            next.complete(true);
+        } else if (inFlight > 0) {
+            inFlight--;
+        }
+    }
+
+    private Set<UUID> getPriorityUuids() {
+        List<String> list = cache.getSettings().getLoginPriorityUuids();
+        if (list == null || list.isEmpty()) {
+            return Collections.emptySet();
+        }
+        int hash = list.hashCode();
+        if (list != priorityList || hash != priorityHash) {
+            // Settings changed since they were parsed
+            Set<UUID> parsed = new HashSet<>();
+            for (String entry : list) {
+                try {
+                    parsed.add(UUID.fromString(entry.trim()));
+                } catch (IllegalArgumentException | NullPointerException ex) {
+                    cache.getErrorService().capture("Invalid UUID '" + entry + "' in login priority UUIDs for cache " + cache.getName());
+                }
+            }
+            prioritySet = parsed;
+            priorityHash = hash;
+            priorityList = list;
+        }
+        return prioritySet;
+    }
+
+    private long estimateWaitNanos(int position, int max) {
+        LatencyHistogram loads = cache.getLoginStats().getHistogram(LoginStage.TOTAL);
+        if (loads.getCount() < MIN_SAMPLES) {
+            return 0L;
+        }
+        return TimeUnit.MICROSECONDS.toNanos(loads.getMean()) * ((position + max - 1) / max);
+    }
+
+    public int getQueueDepth() {
+        synchronized (lock) {
+            return priorityQueue.size() + queue.size();
+        }
+    }
+
+    public int getLoading() {
+        synchronized (lock) {
+            return inFlight;
+        }
+    }
+
+}
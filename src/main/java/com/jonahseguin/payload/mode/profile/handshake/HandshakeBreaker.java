@@ -0,0 +1,103 @@
+/*
+ * Copyright (c) 2020 Jonah Seguin.  All rights reserved.  You may not modify, decompile, distribute or use any code/text contained in this document(plugin) without explicit signed permission from Jonah Seguin.
+ * www.jonahseguin.com
+ */
+
+package com.jonahseguin.payload.mode.profile.handshake;
+
+import com.jonahseguin.payload.base.metrics.LatencyHistogram;
+import com.jonahseguin.payload.mode.profile.settings.ProfileCacheSettings;
+import lombok.Getter;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Handshake round-trip times and a circuit breaker for a single target server.
+ * After {@link ProfileCacheSettings#getHandshakeBreakerThreshold()} consecutive timeouts the breaker opens and handshakes
+ * with the server are skipped for {@link ProfileCacheSettings#getHandshakeBreakerOpenSeconds()}; after that a single
+ * trial handshake is let through (half-open), which closes the breaker on success or re-opens it on another timeout.
+ */
+@Getter
+public class HandshakeBreaker {
+
+    public static final int MIN_SAMPLES = 20; // RTT samples required before the timeout adapts
+
+    public enum State {
+        CLOSED,
+        OPEN,
+        HALF_OPEN
+    }
+
+    private final String server;
+    private final LatencyHistogram roundTrip = new LatencyHistogram();
+    private final AtomicInteger consecutiveTimeouts = new AtomicInteger(0);
+    private final AtomicBoolean trialInFlight = new AtomicBoolean(false);
+    private volatile long openUntil = 0L;
+    private final AtomicLong timeouts = new AtomicLong(0L);
+    private final AtomicLong skipped = new AtomicLong(0L);
+
+    HandshakeBreaker(String server) {
+        this.server = server;
+    }
+
+    public State getState() {
+        if (openUntil == 0L) {
+            return State.CLOSED;
+        }
+        return System.currentTimeMillis() < openUntil ? State.OPEN : State.HALF_OPEN;
+    }
+
+    /**
+     * @return true if a handshake with this server may be attempted now
+     */
+    boolean tryAcquire() {
+        State state = getState();
+        if (state == State.CLOSED) {
+            return true;
+        }
+        if (state == State.HALF_OPEN && trialInFlight.compareAndSet(false, true)) {
+            return true;
+        }
+        skipped.incrementAndGet();
+        return false;
+    }
+
+    void onSuccess(long roundTripNanos) {
+        roundTrip.recordNanos(roundTripNanos);
+        consecutiveTimeouts.set(0);
+        openUntil = 0L;
+        trialInFlight.set(false);
+    }
+
+    void onTimeout(ProfileCacheSettings settings) {
+        timeouts.incrementAndGet();
+        int threshold = settings.getHandshakeBreakerThreshold();
+        if (getState() == State.HALF_OPEN || (threshold > 0 && consecutiveTimeouts.incrementAndGet() >= threshold)) {
+            openUntil = System.currentTimeMillis() + (settings.getHandshakeBreakerOpenSeconds() * 1000L);
+        }
+        trialInFlight.set(false);
+    }
+
+    void release() {
+        trialInFlight.set(false);
+    }
+
+    /**
+     * The timeout for the next handshake with this server: the observed p99 round trip scaled by
+     * {@link ProfileCacheSettings#getHandshakeTimeoutP99Factor()}, bounded by the minimum and
+     * {@link ProfileCacheSettings#getHandshakeTimeoutSeconds()}
+     * @param settings Cache settings
+     * @return Timeout in milliseconds
+     */
+    long timeoutMillis(ProfileCacheSettings settings) {
+        long max = settings.getHandshakeTimeoutSeconds() * 1000L;
+        if (!settings.isHandshakeAdaptiveTimeout() || roundTrip.getCount() < MIN_SAMPLES) {
+            return max;
+        }
+        long adaptive = (long) ((roundTrip.getPercentile(99) / 1000D) * settings.getHandshakeTimeoutP99Factor());
+        return Math.min(max, Math.max(settings.getHandshakeMinTimeoutMillis(), adaptive));
+    }
+
+}
@@ -23,10 +23,16 @@ public class ProfileHandshakePacket {
     private static final String KEY_SENDER_SERVER = "senderServer";
     private static final String KEY_TARGET_SERVER = "targetServer";
     private static final String KEY_UUID = "uuid";
+    private static final String KEY_PAYLOAD = "payload";
 
     private String senderServer;
     private final UUID uuid;
     private String targetServer;
+    private String payload = null; // serialized profile shipped with the reply, if enabled and small enough
+
+    public ProfileHandshakePacket(String senderServer, UUID uuid, String targetServer) {
+        this(senderServer, uuid, targetServer, null);
+    }
 
     @Nullable
     public static ProfileHandshakePacket fromJSON(@Nonnull String json) {
@@ -35,9 +41,10 @@ public class ProfileHandshakePacket {
         String uuidString = document.getString(KEY_UUID);
         String targetServer = document.getString(KEY_TARGET_SERVER);
         String senderServer = document.getString(KEY_SENDER_SERVER);
+        String payload = document.getString(KEY_PAYLOAD);
 
         if (uuidString != null && targetServer != null && senderServer != null) {
-            return new ProfileHandshakePacket(senderServer, UUID.fromString(uuidString), targetServer);
+            return new ProfileHandshakePacket(senderServer, UUID.fromString(uuidString), targetServer, payload);
         }
         return null;
     }
@@ -47,6 +54,9 @@ public class ProfileHandshakePacket {
         document.append(KEY_TARGET_SERVER, targetServer);
         document.append(KEY_UUID, uuid.toString());
         document.append(KEY_SENDER_SERVER, senderServer);
+        if (payload != null) {
+            document.append(KEY_PAYLOAD, payload);
+        }
         return document;
     }
 
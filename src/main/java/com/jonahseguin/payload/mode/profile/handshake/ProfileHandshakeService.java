@@ -10,15 +10,25 @@ import com.google.inject.Inject;
 import com.jonahseguin.payload.base.Service;
 import com.jonahseguin.payload.database.DatabaseService;
 import com.jonahseguin.payload.mode.profile.PayloadProfile;
-import com.jonahseguin.payload.mode.profile.PayloadProfileController;
 import com.jonahseguin.payload.mode.profile.ProfileCache;
 import com.jonahseguin.payload.server.PayloadServer;
+import com.mongodb.BasicDBObject;
 import io.lettuce.core.pubsub.StatefulRedisPubSubConnection;
 import io.lettuce.core.pubsub.api.reactive.RedisPubSubReactiveCommands;
 import org.bukkit.entity.Player;
 
 import javax.annotation.Nonnull;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Optional;
+import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 public class ProfileHandshakeService<X extends PayloadProfile> implements Service {
 
@@ -26,6 +36,8 @@ public class ProfileHandshakeService<X extends PayloadProfile> implements Servic
     private final DatabaseService database;
     private final String channelRequest;
     private final String channelReply;
+    private final ConcurrentMap<UUID, Pending> pending = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, HandshakeBreaker> breakers = new ConcurrentHashMap<>();
     private boolean running = false;
     private RedisPubSubReactiveCommands<String, String> reactive = null;
 
@@ -54,6 +66,8 @@ public class ProfileHandshakeService<X extends PayloadProfile> implements Servic
         if (reactive != null) {
             reactive.unsubscribe(channelRequest, channelReply);
         }
+        pending.values().forEach(p -> p.reply.cancel(false));
+        pending.clear();
         running = false;
         return true;
     }
@@ -110,34 +124,169 @@ public class ProfileHandshakeService<X extends PayloadProfile> implements Servic
         cache.getErrorService().debug("Received handshake request for " + packet.getUuid() + " [" + packet.getSenderServer() + " -> " + packet.getTargetServer() + "]");
         final Player player = cache.getPlugin().getServer().getPlayer(packet.getUuid());
         cache.runAsync(() -> {
+            X profile = null;
             if (player != null && player.isOnline()) {
-                cache.getFromCache(player).ifPresent(profile -> {
-                    profile.setHandshakeStartTimestamp(System.currentTimeMillis());
+                profile = cache.getFromCache(player).orElse(null);
+            }
+            if (profile != null) {
+                profile.setHandshakeStartTimestamp(System.currentTimeMillis());
+                if (cache.getSettings().isHandshakeEmbedProfile() && embedPayload(packet, profile)) {
+                    // The target server gets the profile straight from the reply, so the save is off their join path
+                    sendReply(packet);
                     cache.save(profile);
-                });
+                    return;
+                }
+                cache.save(profile);
             }
             sendReply(packet);
         });
     }
 
+    private boolean embedPayload(@Nonnull ProfileHandshakePacket packet, @Nonnull X profile) {
+        try {
+            BasicDBObject dbObject = (BasicDBObject) database.getMorphia().toDBObject(profile);
+            String json = dbObject.toJson();
+            int bytes = json.getBytes(StandardCharsets.UTF_8).length;
+            if (bytes > cache.getSettings().getHandshakeEmbedMaxBytes()) {
+                cache.getErrorService().debug("Not embedding profile " + profile.getName() + " in handshake reply (" + bytes + " bytes), target will load from database");
+                return false;
+            }
+            packet.setPayload(json);
+            return true;
+        } catch (Exception ex) {
+            cache.getErrorService().capture(ex, "Error serializing profile " + profile.getName() + " for handshake reply");
+            return false;
+        }
+    }
+
+    /**
+     * Materialize the profile shipped inside a handshake reply, if there is one
+     * @param packet The reply packet
+     * @return The profile, or empty if the reply didn't contain one (or it couldn't be read)
+     */
+    public Optional<X> readPayload(@Nonnull ProfileHandshakePacket packet) {
+        Preconditions.checkNotNull(packet, "ProfileHandshakePacket cannot be null");
+        if (packet.getPayload() == null) {
+            return Optional.empty();
+        }
+        try {
+            BasicDBObject dbObject = BasicDBObject.parse(packet.getPayload());
+            X profile = database.getMorphia().fromDBObject(database.getDatastore(), cache.getPayloadClass(), dbObject);
+            if (profile != null) {
+                profile.setLoadingSource("Handshake");
+            }
+            return Optional.ofNullable(profile);
+        } catch (Exception ex) {
+            cache.getErrorService().capture(ex, "Error reading profile from handshake reply for UUID: " + packet.getUuid());
+            return Optional.empty();
+        }
+    }
+
     private void handleReply(@Nonnull ProfileHandshakePacket packet) {
         Preconditions.checkNotNull(packet, "ProfileHandshakePacket cannot be null");
         UUID uuid = packet.getUuid();
         if (uuid != null) {
-            PayloadProfileController<X> controller = cache.controller(uuid);
-            controller.setHandshakeComplete(true);
-            controller.setHandshakeTimedOut(false);
+            Pending p = pending.remove(uuid);
+            if (p != null) {
+                p.reply.complete(packet);
+            } else {
+                cache.getErrorService().debug("Received handshake reply for " + uuid + " with no pending handshake (already timed out?)");
+            }
         }
     }
 
-    public void handshake(@Nonnull PayloadProfileController<X> controller, PayloadServer targetServer) {
-        ProfileHandshakePacket packet = new ProfileHandshakePacket(database.getServerService().getThisServer().getName(), controller.getUuid(), targetServer.getName());
+    /**
+     * Publish a handshake request for a profile to the server it is currently online on.
+     * The returned future is completed as soon as the reply for this UUID arrives; if a handshake is already pending
+     * for the UUID, the caller waits for the same reply instead of publishing a duplicate request.
+     * Each caller gets its own future, so that one giving up (see {@link #cancel(UUID, CompletableFuture)}) doesn't affect the others.
+     * @param uuid The UUID of the profile being handshaked
+     * @param targetServer The server the profile is currently online on
+     * @return Future completed with the reply packet
+     */
+    public CompletableFuture<ProfileHandshakePacket> handshake(@Nonnull UUID uuid, @Nonnull PayloadServer targetServer) {
+        Preconditions.checkNotNull(uuid, "UUID cannot be null for handshake in ProfileHandshakeService");
+        Preconditions.checkNotNull(targetServer, "Target server cannot be null for handshake in ProfileHandshakeService");
+        final Pending created = new Pending();
+        final List<CompletableFuture<ProfileHandshakePacket>> waiter = new ArrayList<>(1);
+        Pending p = pending.compute(uuid, (k, existing) -> {
+            Pending target = existing != null ? existing : created;
+            CompletableFuture<ProfileHandshakePacket> future = target.reply.thenApply(reply -> reply);
+            target.waiters.add(future);
+            waiter.add(future);
+            return target;
+        });
+        if (p != created) {
+            // A request is already out; wait for its reply
+            return waiter.get(0);
+        }
+        ProfileHandshakePacket packet = new ProfileHandshakePacket(database.getServerService().getThisServer().getName(), uuid, targetServer.getName());
         String json = packet.toDocument().toJson();
         Preconditions.checkNotNull(json, "JSON cannot be null for handshake in ProfileHandshakeService");
-        controller.setHandshakeTimedOut(false);
-        controller.setHandshakeComplete(false);
-        controller.setHandshakeRequestStartTime(System.currentTimeMillis());
         database.getRedis().async().publish(channelRequest, json);
+        return waiter.get(0);
+    }
+
+    /**
+     * Stop waiting for a handshake reply (i.e. after it timed out).  Once no caller is waiting, a late reply is ignored.
+     * @param uuid The UUID of the profile being handshaked
+     * @param future The future returned by {@link #handshake(UUID, PayloadServer)}
+     */
+    public void cancel(@Nonnull UUID uuid, @Nonnull CompletableFuture<ProfileHandshakePacket> future) {
+        Preconditions.checkNotNull(uuid);
+        Preconditions.checkNotNull(future);
+        // Only this caller's future; the handshake stays pending while anyone else is still waiting for it
+        pending.computeIfPresent(uuid, (k, p) -> p.waiters.remove(future) && p.waiters.isEmpty() ? null : p);
+        future.cancel(false);
+    }
+
+    @Nonnull
+    public HandshakeBreaker getBreaker(@Nonnull PayloadServer server) {
+        Preconditions.checkNotNull(server);
+        return breakers.computeIfAbsent(server.getName().toLowerCase(Locale.ROOT), s -> new HandshakeBreaker(server.getName()));
+    }
+
+    public Optional<HandshakeBreaker> getBreaker(@Nonnull String serverName) {
+        Preconditions.checkNotNull(serverName);
+        return Optional.ofNullable(breakers.get(serverName.toLowerCase(Locale.ROOT)));
+    }
+
+    /**
+     * @param server Target server
+     * @return false if the circuit breaker for the server is open, and the profile should be loaded from the database instead
+     */
+    public boolean allowHandshake(@Nonnull PayloadServer server) {
+        return getBreaker(server).tryAcquire();
+    }
+
+    /**
+     * @param server Target server
+     * @return How long to wait for a handshake reply from the server, in milliseconds
+     */
+    public long getTimeoutMillis(@Nonnull PayloadServer server) {
+        return getBreaker(server).timeoutMillis(cache.getSettings());
+    }
+
+    public void recordSuccess(@Nonnull PayloadServer server, long roundTripNanos) {
+        getBreaker(server).onSuccess(roundTripNanos);
+    }
+
+    public void recordTimeout(@Nonnull PayloadServer server) {
+        HandshakeBreaker breaker = getBreaker(server);
+        boolean wasOpen = breaker.getState() == HandshakeBreaker.State.OPEN;
+        breaker.onTimeout(cache.getSettings());
+        if (!wasOpen && breaker.getState() == HandshakeBreaker.State.OPEN) {
+            cache.getErrorService().capture("Handshake circuit breaker opened for server " + server.getName() + " in cache " + cache.getName() + " after " + breaker.getConsecutiveTimeouts().get() + " consecutive timeouts");
+        }
+    }
+
+    public void recordFailure(@Nonnull PayloadServer server) {
+        getBreaker(server).release();
+    }
+
+    private static final class Pending {
+        private final CompletableFuture<ProfileHandshakePacket> reply = new CompletableFuture<>();
+        private final Set<CompletableFuture<ProfileHandshakePacket>> waiters = new HashSet<>(); // only changed inside pending.compute
     }
 
 }
@@ -5,16 +5,20 @@
 
 package com.jonahseguin.payload.mode.profile.listener;
 
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.google.inject.Inject;
 import com.jonahseguin.payload.PayloadAPI;
 import com.jonahseguin.payload.PayloadMode;
 import com.jonahseguin.payload.base.Cache;
+import com.jonahseguin.payload.base.lang.PLang;
 import com.jonahseguin.payload.mode.profile.PayloadProfile;
 import com.jonahseguin.payload.mode.profile.PayloadProfileCache;
 import com.jonahseguin.payload.mode.profile.PayloadProfileController;
 import com.jonahseguin.payload.mode.profile.ProfileCache;
+import com.jonahseguin.payload.mode.profile.ProfileLoad;
 import com.jonahseguin.payload.mode.profile.event.PayloadProfileLogoutEvent;
 import com.jonahseguin.payload.mode.profile.event.PayloadProfileSwitchServersEvent;
+import org.bukkit.ChatColor;
 import org.bukkit.entity.Player;
 import org.bukkit.event.EventHandler;
 import org.bukkit.event.EventPriority;
@@ -23,17 +27,27 @@ import org.bukkit.event.player.AsyncPlayerPreLoginEvent;
 import org.bukkit.event.player.PlayerJoinEvent;
 import org.bukkit.event.player.PlayerQuitEvent;
 
-import java.util.List;
-import java.util.Optional;
-import java.util.UUID;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
 
 public class ProfileListener implements Listener {
 
     private final PayloadAPI api;
+    private final ExecutorService loginExecutor;
 
     @Inject
     public ProfileListener(PayloadAPI api) {
         this.api = api;
+        this.loginExecutor = Executors.newFixedThreadPool(api.getPlugin().getLocal().getLoginThreads(),
+                new ThreadFactoryBuilder().setNameFormat("Payload Login Thread #%d").setDaemon(true).build());
+    }
+
+    public void shutdown() {
+        loginExecutor.shutdown();
     }
 
     @EventHandler(priority = EventPriority.LOW)
@@ -42,20 +56,101 @@ public class ProfileListener implements Listener {
         final UUID uniqueId = event.getUniqueId();
         final String ip = event.getAddress().getHostAddress();
 
-        List<Cache> sortedCaches = api.getSortedCachesByDepends();
-
-        sortedCaches.forEach(c -> {
+        List<ProfileCache> profileCaches = new ArrayList<>();
+        for (Cache c : api.getSortedCachesByDepends()) {
             if (c instanceof ProfileCache) {
-                ProfileCache cache = (ProfileCache) c;
-                PayloadProfileController controller = cache.controller(uniqueId);
-                controller.login(username, ip);
-                controller.cache();
+                profileCaches.add((ProfileCache) c);
+            }
+        }
+
+        // Admission is taken in dependency order so that logins queued on different caches can't hold each other up
+        final long start = System.nanoTime();
+        List<ProfileCache> admitted = new ArrayList<>();
+        for (ProfileCache cache : profileCaches) {
+            if (!cache.getLoginAdmission().acquire(uniqueId, start)) {
+                admitted.forEach(c -> c.getLoginAdmission().release());
+                event.disallow(AsyncPlayerPreLoginEvent.Result.KICK_WHITELIST, cache.getLang().format(PLang.JOIN_DENY_QUEUE_FULL, cache.getName()));
+                return;
+            }
+            admitted.add(cache);
+        }
+
+        // Caches without a dependency between them are loaded concurrently; a cache only starts loading once
+        // every cache it depends on has finished, so login time tracks the slowest dependency chain.
+        // Each cache runs on the thread that finished the last of its dependencies.  The first cache without any runs
+        // on this (pre-login) thread, so only caches that can load alongside it take a login thread.
+        Map<ProfileCache, CompletableFuture<Void>> loads = new LinkedHashMap<>();
+        Map<ProfileCache, ProfileLoad> results = new ConcurrentHashMap<>();
+        List<CompletableFuture<Void>> ready = new ArrayList<>();
+        for (ProfileCache cache : profileCaches) {
+            scheduleLogin(cache, profileCaches, loads, results, ready, new HashSet<>(), username, uniqueId, ip);
+        }
+        for (int i = 1; i < ready.size(); i++) {
+            CompletableFuture<Void> gate = ready.get(i);
+            try {
+                loginExecutor.execute(() -> gate.complete(null));
+            } catch (RejectedExecutionException ex) {
+                gate.complete(null); // shutting down
+            }
+        }
+        if (!ready.isEmpty()) {
+            ready.get(0).complete(null);
+        }
+        CompletableFuture.allOf(loads.values().toArray(new CompletableFuture[0])).join();
+
+        for (ProfileCache cache : profileCaches) {
+            ProfileLoad result = results.get(cache);
+            if (result == null) {
+                event.disallow(AsyncPlayerPreLoginEvent.Result.KICK_WHITELIST, ChatColor.RED + "A caching error occurred.  Please try again.");
+            } else if (result.isDenyJoin()) {
+                event.disallow(AsyncPlayerPreLoginEvent.Result.KICK_WHITELIST, result.getJoinDenyReason());
+            }
+        }
+    }
 
-                if (controller.isDenyJoin()) {
-                    event.disallow(AsyncPlayerPreLoginEvent.Result.KICK_WHITELIST, controller.getJoinDenyReason());
+    private CompletableFuture<Void> scheduleLogin(ProfileCache cache, List<ProfileCache> profileCaches,
+                                                  Map<ProfileCache, CompletableFuture<Void>> loads,
+                                                  Map<ProfileCache, ProfileLoad> results, List<CompletableFuture<Void>> ready,
+                                                  Set<ProfileCache> visiting, String username, UUID uniqueId, String ip) {
+        CompletableFuture<Void> scheduled = loads.get(cache);
+        if (scheduled != null) {
+            return scheduled;
+        }
+        visiting.add(cache);
+        List<CompletableFuture<Void>> depends = new ArrayList<>();
+        for (ProfileCache other : profileCaches) {
+            if (other != cache && cache.isDependentOn(other)) {
+                if (visiting.contains(other)) {
+                    cache.getErrorService().capture("Circular dependency between caches " + cache.getName() + " and " + other.getName() + ", ignoring it during login");
+                    continue;
                 }
+                depends.add(scheduleLogin(other, profileCaches, loads, results, ready, visiting, username, uniqueId, ip));
             }
-        });
+        }
+        visiting.remove(cache);
+
+        PayloadProfileController controller = cache.controller(uniqueId);
+        Runnable load = () -> {
+            try {
+                results.put(cache, controller.login(username, ip));
+            } catch (Exception ex) {
+                // No result is recorded, so the login is denied
+                cache.getErrorService().capture(ex, "Error caching profile " + username + " during login");
+            }
+        };
+        CompletableFuture<Void> future;
+        if (depends.isEmpty()) {
+            // Started once every load is scheduled
+            CompletableFuture<Void> gate = new CompletableFuture<>();
+            ready.add(gate);
+            future = gate.thenRun(load);
+        } else {
+            future = CompletableFuture.allOf(depends.toArray(new CompletableFuture[0])).thenRun(load);
+        }
+        // Free this cache's admission permit as soon as its own load is done
+        future.whenComplete((v, ex) -> cache.getLoginAdmission().release());
+        loads.put(cache, future);
+        return future;
     }
 
     @EventHandler(priority = EventPriority.LOW)
@@ -92,8 +187,10 @@ public class ProfileListener implements Listener {
                         cache.getPlugin().getServer().getPluginManager().callEvent(payloadEvent);
 
                         profile.uninitializePlayer();
+                        cache.markOffline(profile);
                         cache.saveAsync(profile);
                         cache.removeController(profile.getUniqueId());
+                        cache.getDepartedStore().depart(profile);
                     }
                 } else if (cache.getMode().equals(PayloadMode.NETWORK_NODE)) {
                     Optional<PayloadProfile> o = cache.getFromCache(player.getUniqueId());
@@ -104,13 +201,20 @@ public class ProfileListener implements Listener {
                             cache.getPlugin().getServer().getPluginManager().callEvent(payloadEvent);
 
                             profile.uninitializePlayer();
+                            cache.markOffline(profile);
 
                             // Not switching servers (no incoming handshake) -- we can assume they are actually
                             // Logging out, and not switching servers
                             cache.runAsync(() -> {
-                                cache.save(profile);
+                                if (cache.getSettings().isSkipHandshakeWhenSaved() && !profile.isDirty()) {
+                                    // Nothing changed since the last save; the server they may be joining could already be using the stored copy
+                                    cache.getErrorService().debug("Not saving player " + player.getName() + " on logout (no changes since last save)");
+                                } else {
+                                    cache.save(profile);
+                                }
                                 cache.controller(event.getPlayer().getUniqueId()).uncache(profile, false);
                                 cache.removeController(player.getUniqueId());
+                                cache.getDepartedStore().depart(profile);
                                 cache.getErrorService().debug("Saving player " + player.getName() + " on logout (not switching servers)");
                             });
                         } else {
@@ -118,8 +222,10 @@ public class ProfileListener implements Listener {
                             cache.getPlugin().getServer().getPluginManager().callEvent(payloadEvent);
 
                             profile.uninitializePlayer();
+                            cache.markOffline(profile);
 
                             cache.controller(event.getPlayer().getUniqueId()).uncache(profile, true);
+                            cache.removeController(player.getUniqueId());
                             cache.getErrorService().debug("Not saving player " + player.getName() + " on quit (is switching servers)");
                         }
                     } else {
@@ -35,6 +35,8 @@ public class NetworkProfile {
     protected String lastSeenServer;
     protected long lastSeen = 0L;
     protected boolean online = false;
+    protected long version = 0L; // latest known version of the profile on the server holding it
+    protected long lastSavedVersion = 0L; // version of the profile last written to the database
     protected transient UUID uuidID = null;
 
     @Inject
@@ -85,6 +87,23 @@ public class NetworkProfile {
         }
     }
 
+    public void markDirty(long version) {
+        this.version = Math.max(this.version, version);
+    }
+
+    public void markSaved(long savedVersion, long currentVersion) {
+        markSaved();
+        this.lastSavedVersion = savedVersion;
+        this.version = Math.max(this.version, currentVersion);
+    }
+
+    /**
+     * @return True if the copy of this profile in the database is at least as new as the copy on the server holding it
+     */
+    public boolean isStoredCopyCurrent() {
+        return version <= lastSavedVersion;
+    }
+
     public UUID getIdentifier() {
         setUUID();
         return uuidID;
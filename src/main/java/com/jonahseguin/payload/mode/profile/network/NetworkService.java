@@ -22,6 +22,15 @@ public interface NetworkService<X extends PayloadProfile> extends Service {
 
     boolean save(@Nonnull NetworkProfile networkProfile);
 
+    /**
+     * Publish that a profile was changed (up to a version) since it was last saved, without rewriting its NetworkProfile.
+     * Merged into the NetworkProfile when it is read.
+     * @param uuid UUID of the profile
+     * @param version The profile's version
+     * @return true if the write was sent
+     */
+    boolean publishDirty(@Nonnull UUID uuid, long version);
+
     Optional<X> get(@Nonnull NetworkProfile payload);
 
     NetworkProfile create(@Nonnull X payload);
@@ -6,20 +6,32 @@
 package com.jonahseguin.payload.mode.profile.network;
 
 import com.google.common.base.Preconditions;
+import com.jonahseguin.payload.base.uuid.BinaryUUID;
 import com.jonahseguin.payload.database.DatabaseService;
 import com.jonahseguin.payload.mode.profile.PayloadProfile;
 import com.jonahseguin.payload.mode.profile.ProfileCache;
 import com.mongodb.BasicDBObject;
+import io.lettuce.core.MapScanCursor;
+import io.lettuce.core.ScanCursor;
+import io.lettuce.core.ScriptOutputType;
+import io.lettuce.core.api.sync.RedisCommands;
 
 import javax.annotation.Nonnull;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
 import java.util.Optional;
 import java.util.UUID;
 
 public class RedisNetworkService<X extends PayloadProfile> implements NetworkService<X> {
 
+    // Only ever raises the version, so a late write can't lower it
+    private static final String PUBLISH_DIRTY_SCRIPT = "local v = tonumber(redis.call('HGET', KEYS[1], ARGV[1]) or '0') "
+            + "if tonumber(ARGV[2]) > v then redis.call('HSET', KEYS[1], ARGV[1], ARGV[2]) return 1 end return 0";
+
     private final ProfileCache<X> cache;
     private final DatabaseService database;
     private boolean running = false;
+    private volatile boolean keysConverted = false;
 
     public RedisNetworkService(ProfileCache<X> cache) {
         this.cache = cache;
@@ -29,23 +41,8 @@ public class RedisNetworkService<X extends PayloadProfile> implements NetworkSer
     @Override
     public Optional<NetworkProfile> get(@Nonnull UUID uuid) {
         Preconditions.checkNotNull(uuid, "UUID cannot be null");
-        final String hashKey = cache.getServerSpecificName();
-        final String keyString = cache.keyToString(uuid);
-        Preconditions.checkNotNull(hashKey, "Hash key cannot be null");
-        Preconditions.checkNotNull(keyString, "Key cannot be null");
         try {
-            if (database.getRedis().sync().hexists(hashKey, keyString)) {
-                final String json = database.getRedis().sync().hget(hashKey, keyString);
-                if (json != null && json.length() > 0) {
-                    BasicDBObject dbObject = BasicDBObject.parse(json);
-                    NetworkProfile networkProfile = database.getMorphia().fromDBObject(database.getDatastore(), NetworkProfile.class, dbObject);
-                    return Optional.ofNullable(networkProfile);
-                } else {
-                    return Optional.empty();
-                }
-            } else {
-                return Optional.empty();
-            }
+            return Optional.ofNullable(read(uuid));
         } catch (Exception ex) {
             cache.getErrorService().capture(ex, "Error getting network payload from Key in Redis Network Service");
             return Optional.empty();
@@ -55,25 +52,10 @@ public class RedisNetworkService<X extends PayloadProfile> implements NetworkSer
     @Override
     public Optional<NetworkProfile> get(@Nonnull X payload) {
         Preconditions.checkNotNull(payload, "Payload cannot be null");
-        final String hashKey = cache.getServerSpecificName();
-        final String keyString = cache.keyToString(payload.getIdentifier());
-        Preconditions.checkNotNull(hashKey, "Hash key cannot be null");
-        Preconditions.checkNotNull(keyString, "Key cannot be null");
         try {
-            if (database.getRedis().sync().hexists(hashKey, keyString)) {
-                final String json = database.getRedis().sync().hget(hashKey, keyString);
-                if (json != null && json.length() > 0) {
-                    BasicDBObject dbObject = BasicDBObject.parse(json);
-                    NetworkProfile networkProfile = database.getMorphia().fromDBObject(database.getDatastore(), NetworkProfile.class, dbObject);
-                    if (networkProfile != null) {
-                        networkProfile.setIdentifier(payload.getIdentifier());
-                        return Optional.of(networkProfile);
-                    } else {
-                        return createForGet(payload);
-                    }
-                } else {
-                    return createForGet(payload);
-                }
+            NetworkProfile networkProfile = read(payload.getIdentifier());
+            if (networkProfile != null) {
+                return Optional.of(networkProfile);
             } else {
                 return createForGet(payload);
             }
@@ -83,6 +65,33 @@ public class RedisNetworkService<X extends PayloadProfile> implements NetworkSer
         }
     }
 
+    private NetworkProfile read(@Nonnull UUID uuid) {
+        final String hashKey = cache.getServerSpecificName();
+        Preconditions.checkNotNull(hashKey, "Hash key cannot be null");
+        String json = null;
+        if (isBinary()) {
+            byte[] value = database.getRedisBinary().sync().hget(hashKey.getBytes(StandardCharsets.UTF_8), BinaryUUID.toBytes(uuid));
+            if (value != null) {
+                json = new String(value, StandardCharsets.UTF_8);
+            }
+        }
+        if (json == null && hasStringKeys()) {
+            json = database.getRedis().sync().hget(hashKey, cache.keyToString(uuid));
+        }
+        if (json != null && json.length() > 0) {
+            BasicDBObject dbObject = BasicDBObject.parse(json);
+            NetworkProfile networkProfile = database.getMorphia().fromDBObject(database.getDatastore(), NetworkProfile.class, dbObject);
+            if (networkProfile != null) {
+                networkProfile.setIdentifier(uuid);
+                if (cache.getSettings().isSkipHandshakeWhenSaved()) {
+                    networkProfile.markDirty(readDirty(uuid));
+                }
+            }
+            return networkProfile;
+        }
+        return null;
+    }
+
     private Optional<NetworkProfile> createForGet(@Nonnull X payload) {
         NetworkProfile networkProfile = create(payload);
         if (!save(networkProfile)) {
@@ -99,7 +108,10 @@ public class RedisNetworkService<X extends PayloadProfile> implements NetworkSer
         Preconditions.checkNotNull(hashKey, "Hash key cannot be null");
         Preconditions.checkNotNull(keyString, "Key cannot be null");
         try {
-            return database.getRedis().sync().hexists(hashKey, keyString);
+            if (isBinary() && database.getRedisBinary().sync().hexists(hashKey.getBytes(StandardCharsets.UTF_8), BinaryUUID.toBytes(uuid))) {
+                return true;
+            }
+            return hasStringKeys() && database.getRedis().sync().hexists(hashKey, keyString);
         } catch (Exception ex) {
             cache.getErrorService().capture("Error checking if hexists in Redis Network Service for UUID:" + keyString);
         }
@@ -114,7 +126,17 @@ public class RedisNetworkService<X extends PayloadProfile> implements NetworkSer
         Preconditions.checkNotNull(hashKey, "Hash key cannot be null");
         Preconditions.checkNotNull(keyString, "Key cannot be null");
         BasicDBObject object = (BasicDBObject) database.getMorphia().toDBObject(networkProfile);
-        if (object != null) {
+        if (object != null && isBinary()) {
+            // The identifier is the hash field itself
+            object.removeField("identifier");
+            try {
+                database.getRedisBinary().async().hset(hashKey.getBytes(StandardCharsets.UTF_8), BinaryUUID.toBytes(networkProfile.getIdentifier()), object.toJson().getBytes(StandardCharsets.UTF_8));
+                return true;
+            } catch (Exception ex) {
+                cache.getErrorService().capture(ex, "Error saving NetworkProfile in Redis Network Service for UUID: " + keyString);
+                return false;
+            }
+        } else if (object != null) {
             String json = object.toJson();
             Preconditions.checkNotNull(json, "JSON cannot be null");
             Preconditions.checkNotNull(cache.getServerSpecificName(), "Server specific cache name cannot be null");
@@ -131,6 +153,49 @@ public class RedisNetworkService<X extends PayloadProfile> implements NetworkSer
         return false;
     }
 
+    @Override
+    public boolean publishDirty(@Nonnull UUID uuid, long version) {
+        Preconditions.checkNotNull(uuid, "UUID cannot be null");
+        final String dirtyKey = getDirtyHashKey();
+        final String versionString = Long.toString(version);
+        try {
+            // Sent without waiting for the reply; commands on the connection are executed in order
+            if (isBinary()) {
+                database.getRedisBinary().async().eval(PUBLISH_DIRTY_SCRIPT, ScriptOutputType.INTEGER,
+                        new byte[][]{dirtyKey.getBytes(StandardCharsets.UTF_8)}, BinaryUUID.toBytes(uuid), versionString.getBytes(StandardCharsets.UTF_8));
+            } else {
+                database.getRedis().async().eval(PUBLISH_DIRTY_SCRIPT, ScriptOutputType.INTEGER, new String[]{dirtyKey}, cache.keyToString(uuid), versionString);
+            }
+            return true;
+        } catch (Exception ex) {
+            cache.getErrorService().capture(ex, "Error publishing dirty version in Redis Network Service for UUID: " + cache.keyToString(uuid));
+            return false;
+        }
+    }
+
+    private long readDirty(@Nonnull UUID uuid) {
+        final String dirtyKey = getDirtyHashKey();
+        String value;
+        if (isBinary()) {
+            byte[] bytes = database.getRedisBinary().sync().hget(dirtyKey.getBytes(StandardCharsets.UTF_8), BinaryUUID.toBytes(uuid));
+            value = bytes != null ? new String(bytes, StandardCharsets.UTF_8) : null;
+        } else {
+            value = database.getRedis().sync().hget(dirtyKey, cache.keyToString(uuid));
+        }
+        try {
+            return value != null ? Long.parseLong(value) : 0L;
+        } catch (NumberFormatException ex) {
+            return 0L;
+        }
+    }
+
+    /**
+     * @return The hash of dirty versions published by {@link #publishDirty(UUID, long)}, next to this cache's NetworkProfile hash
+     */
+    private String getDirtyHashKey() {
+        return cache.getServerSpecificName() + "-dirty";
+    }
+
     @Override
     public Optional<X> get(@Nonnull NetworkProfile payload) {
         Preconditions.checkNotNull(payload);
@@ -148,9 +213,65 @@ public class RedisNetworkService<X extends PayloadProfile> implements NetworkSer
     @Override
     public boolean start() {
         running = true;
+        if (isBinary()) {
+            cache.runAsync(this::convertKeys);
+        }
         return true;
     }
 
+    private boolean isBinary() {
+        return cache.getSettings().isBinaryUuids();
+    }
+
+    /**
+     * @return true if the hash may still have fields keyed by UUID strings
+     */
+    private boolean hasStringKeys() {
+        return !isBinary() || !keysConverted;
+    }
+
+    /**
+     * Convert the fields of this cache's hash that are still keyed by UUID strings to 16 byte binary UUIDs,
+     * for {@link com.jonahseguin.payload.mode.profile.settings.ProfileCacheSettings#isBinaryUuids()}.
+     * Fields are scanned incrementally (HSCAN); a binary field that was already written since is never overwritten.
+     */
+    public void convertKeys() {
+        final String hashKey = cache.getServerSpecificName();
+        Preconditions.checkNotNull(hashKey, "Hash key cannot be null");
+        final byte[] key = hashKey.getBytes(StandardCharsets.UTF_8);
+        try {
+            RedisCommands<byte[], byte[]> redis = database.getRedisBinary().sync();
+            long converted = 0;
+            ScanCursor cursor = ScanCursor.INITIAL;
+            MapScanCursor<byte[], byte[]> scan;
+            do {
+                scan = redis.hscan(key, cursor);
+                for (Map.Entry<byte[], byte[]> entry : scan.getMap().entrySet()) {
+                    byte[] field = entry.getKey();
+                    if (field.length == BinaryUUID.BYTES) {
+                        continue;
+                    }
+                    UUID uuid = BinaryUUID.read(new String(field, StandardCharsets.UTF_8));
+                    if (uuid == null) {
+                        continue;
+                    }
+                    BasicDBObject object = BasicDBObject.parse(new String(entry.getValue(), StandardCharsets.UTF_8));
+                    object.removeField("identifier");
+                    redis.hsetnx(key, BinaryUUID.toBytes(uuid), object.toJson().getBytes(StandardCharsets.UTF_8));
+                    redis.hdel(key, field);
+                    converted++;
+                }
+                cursor = scan;
+            } while (!scan.isFinished());
+            keysConverted = true;
+            if (converted > 0) {
+                cache.getErrorService().debug("Converted " + converted + " network profile keys to binary in cache " + cache.getName());
+            }
+        } catch (Exception ex) {
+            cache.getErrorService().capture(ex, "Error converting network profile keys to binary in Redis Network Service");
+        }
+    }
+
     @Override
     public boolean shutdown() {
         running = false;
@@ -10,6 +10,9 @@ import lombok.Getter;
 import lombok.NoArgsConstructor;
 import lombok.Setter;
 
+import java.util.ArrayList;
+import java.util.List;
+
 @Getter
 @Setter
 @NoArgsConstructor
@@ -21,7 +24,28 @@ public class ProfileCacheSettings extends CacheSettings {
     private boolean denyJoinOnHandshakeTimeout = false; // will allow for failure handling
     private boolean denyJoinOnHandshakeFailDatabase = false; // deny join if database is down during handshake?
     private int handshakeTimeOutAttemptsAllowJoin = 3;
+    private boolean handshakeAdaptiveTimeout = true; // derive the handshake timeout from the observed round trip times of each server (bounded by handshakeTimeoutSeconds)
+    private double handshakeTimeoutP99Factor = 3.0; // adaptive timeout = p99 round trip * this factor
+    private long handshakeMinTimeoutMillis = 250; // lower bound of the adaptive timeout
+    private int handshakeBreakerThreshold = 3; // consecutive handshake timeouts with a server before its circuit breaker opens (0 to disable)
+    private int handshakeBreakerOpenSeconds = 30; // how long handshakes with a server are skipped (loading from the database instead) once its breaker opens
+    private boolean handshakeEmbedProfile = false; // ship the serialized profile in the handshake reply instead of re-reading it from MongoDB
+    private int handshakeEmbedMaxBytes = 262144; // profiles larger than this (serialized) fall back to the MongoDB read
+    private boolean skipHandshakeWhenSaved = false; // load straight from the database when the NetworkProfile shows the stored copy is current (requires PayloadProfile#markDirty() on every change)
+    private int reconnectGraceSeconds = 30; // keep profiles of players who logged out this long, and reuse them if they reconnect before another server loads them (0 to disable)
     private boolean setOfflineOnShutdown = true; // update Profiles to offline=true on cache shutdown
     private boolean alwaysCacheOnLoadNetworkNode = false; // should we cache profiles that are fetched (not during login) in network_node mode (CAN CAUSE DATA LOSS)
+    private boolean loginBatchEnabled = false; // coalesce MongoDB lookups of concurrent logins into a single $in query (a login with no other lookup in flight is never delayed)
+    private long loginBatchWindowMillis = 3; // how long to collect login lookups before querying
+    private int loginBatchMaxSize = 50; // query immediately once this many login lookups are pending
+    private long loginBatchTimeoutMillis = 5000; // stop waiting for a batch after this long and read the profile directly
+    private long slowLoginThresholdMillis = 1000; // log a per-stage breakdown of logins that take at least this long (0 to disable)
+    private int loginMaxConcurrentLoads = 32; // profile loads in flight at once during logins, the rest wait in a queue (0 for unlimited)
+    private int loginMaxQueueSize = 256; // logins waiting for a load beyond this are denied immediately
+    private long loginQueueBudgetMillis = 10000; // logins that can't start loading within this long are denied (asked to retry)
+    private List<String> loginPriorityUuids = new ArrayList<>(); // UUIDs (any case) that skip ahead of the normal login queue
+    private int controllerIdleSeconds = 300; // controllers without an online player or a load in flight are discarded after being unused this long
+    private int maxControllers = 5000; // when reached, idle controllers are discarded early to make room, at most once per cleanup interval (0 for unlimited)
+    private boolean binaryUuids = false; // store UUIDs as BSON binary (subtype 4) in MongoDB and as 16 byte hash fields in Redis; existing data is converted in the background
 
 }
@@ -0,0 +1,29 @@
+/*
+ * Copyright (c) 2020 Jonah Seguin.  All rights reserved.  You may not modify, decompile, distribute or use any code/text contained in this document(plugin) without explicit signed permission from Jonah Seguin.
+ * www.jonahseguin.com
+ */
+
+package com.jonahseguin.payload.mode.profile.stats;
+
+public enum LoginStage {
+
+    UUID_SAVE("UUID Mapping"),
+    NETWORK_LOOKUP("NetworkProfile Lookup"),
+    HANDSHAKE("Handshake"),
+    DATABASE_LOAD("Database Load"),
+    CACHE("Cache"),
+    TOTAL("Total"),
+
+    ;
+
+    private final String displayName;
+
+    LoginStage(String displayName) {
+        this.displayName = displayName;
+    }
+
+    public String getDisplayName() {
+        return displayName;
+    }
+
+}
@@ -0,0 +1,51 @@
+/*
+ * Copyright (c) 2020 Jonah Seguin.  All rights reserved.  You may not modify, decompile, distribute or use any code/text contained in this document(plugin) without explicit signed permission from Jonah Seguin.
+ * www.jonahseguin.com
+ */
+
+package com.jonahseguin.payload.mode.profile.stats;
+
+import com.jonahseguin.payload.base.metrics.LatencyHistogram;
+
+/**
+ * The time spent in each {@link LoginStage} while caching a single profile during login.
+ */
+public class LoginTrace {
+
+    private final long[] nanos = new long[LoginStage.values().length];
+    private final long startedAt = System.nanoTime();
+
+    public long start() {
+        return System.nanoTime();
+    }
+
+    public void stop(LoginStage stage, long start) {
+        nanos[stage.ordinal()] += System.nanoTime() - start;
+    }
+
+    public void finish() {
+        nanos[LoginStage.TOTAL.ordinal()] = System.nanoTime() - startedAt;
+    }
+
+    public long getNanos(LoginStage stage) {
+        return nanos[stage.ordinal()];
+    }
+
+    public long getTotalMillis() {
+        return getNanos(LoginStage.TOTAL) / 1000000L;
+    }
+
+    public String breakdown() {
+        StringBuilder sb = new StringBuilder();
+        for (LoginStage stage : LoginStage.values()) {
+            if (stage != LoginStage.TOTAL && nanos[stage.ordinal()] > 0) {
+                if (sb.length() > 0) {
+                    sb.append(", ");
+                }
+                sb.append(stage.getDisplayName()).append(": ").append(LatencyHistogram.formatMillis(nanos[stage.ordinal()] / 1000L));
+            }
+        }
+        return sb.toString();
+    }
+
+}
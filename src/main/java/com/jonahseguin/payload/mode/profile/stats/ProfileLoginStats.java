@@ -0,0 +1,52 @@
+/*
+ * Copyright (c) 2020 Jonah Seguin.  All rights reserved.  You may not modify, decompile, distribute or use any code/text contained in this document(plugin) without explicit signed permission from Jonah Seguin.
+ * www.jonahseguin.com
+ */
+
+package com.jonahseguin.payload.mode.profile.stats;
+
+import com.google.common.base.Preconditions;
+import com.jonahseguin.payload.base.metrics.LatencyHistogram;
+
+import javax.annotation.Nonnull;
+import java.util.EnumMap;
+import java.util.Map;
+
+/**
+ * Per-cache latency histograms of each {@link LoginStage}
+ */
+public class ProfileLoginStats {
+
+    private final Map<LoginStage, LatencyHistogram> histograms = new EnumMap<>(LoginStage.class);
+
+    public ProfileLoginStats() {
+        for (LoginStage stage : LoginStage.values()) {
+            histograms.put(stage, new LatencyHistogram());
+        }
+    }
+
+    public void record(@Nonnull LoginTrace trace) {
+        Preconditions.checkNotNull(trace);
+        for (LoginStage stage : LoginStage.values()) {
+            long nanos = trace.getNanos(stage);
+            if (nanos > 0 || stage == LoginStage.TOTAL) {
+                histograms.get(stage).recordNanos(nanos);
+            }
+        }
+    }
+
+    @Nonnull
+    public LatencyHistogram getHistogram(@Nonnull LoginStage stage) {
+        Preconditions.checkNotNull(stage);
+        return histograms.get(stage);
+    }
+
+    public long getLoginCount() {
+        return histograms.get(LoginStage.TOTAL).getCount();
+    }
+
+    public void reset() {
+        histograms.values().forEach(LatencyHistogram::reset);
+    }
+
+}
@@ -0,0 +1,85 @@
+/*
+ * Copyright (c) 2020 Jonah Seguin.  All rights reserved.  You may not modify, decompile, distribute or use any code/text contained in this document(plugin) without explicit signed permission from Jonah Seguin.
+ * www.jonahseguin.com
+ */
+
+package com.jonahseguin.payload.mode.profile.store;
+
+import com.google.common.base.Preconditions;
+import com.jonahseguin.payload.base.uuid.BinaryUUID;
+import com.jonahseguin.payload.mode.profile.PayloadProfile;
+import com.jonahseguin.payload.mode.profile.PayloadProfileCache;
+import com.mongodb.BasicDBObject;
+import com.mongodb.BulkWriteOperation;
+import com.mongodb.DBCollection;
+import com.mongodb.DBCursor;
+import com.mongodb.DBObject;
+import org.bson.BsonType;
+
+import javax.annotation.Nonnull;
+import java.util.UUID;
+
+/**
+ * Background conversion of profile documents that still store uniqueId as a string to BSON binary (subtype 4),
+ * for {@link com.jonahseguin.payload.mode.profile.settings.ProfileCacheSettings#isBinaryUuids()}.
+ * Until it is {@link #isComplete()}, lookups by UUID match both forms.
+ */
+public class BinaryUUIDMigration<X extends PayloadProfile> implements Runnable {
+
+    private static final int BATCH_SIZE = 500; // documents updated per bulk write
+
+    private final PayloadProfileCache<X> cache;
+    private volatile boolean complete = false;
+
+    public BinaryUUIDMigration(@Nonnull PayloadProfileCache<X> cache) {
+        Preconditions.checkNotNull(cache);
+        this.cache = cache;
+    }
+
+    public boolean isComplete() {
+        return complete;
+    }
+
+    @Override
+    public void run() {
+        if (complete) {
+            return;
+        }
+        try {
+            DBCollection collection = cache.getDatabase().getDatastore().getCollection(cache.getPayloadClass());
+            BasicDBObject query = new BasicDBObject("uniqueId", new BasicDBObject("$type", BsonType.STRING.getValue()));
+            long converted = 0;
+            int pending = 0;
+            BulkWriteOperation bulk = collection.initializeUnorderedBulkOperation();
+            try (DBCursor cursor = collection.find(query, new BasicDBObject("uniqueId", 1))) {
+                while (cursor.hasNext()) {
+                    DBObject document = cursor.next();
+                    UUID uuid = BinaryUUID.read(document.get("uniqueId"));
+                    if (uuid == null) {
+                        continue;
+                    }
+                    // Only if it's still the string, in case the profile was saved since it was read
+                    bulk.find(new BasicDBObject("_id", document.get("_id")).append("uniqueId", document.get("uniqueId")))
+                            .updateOne(new BasicDBObject("$set", new BasicDBObject("uniqueId", BinaryUUID.toBinary(uuid))));
+                    if (++pending >= BATCH_SIZE) {
+                        bulk.execute();
+                        converted += pending;
+                        pending = 0;
+                        bulk = collection.initializeUnorderedBulkOperation();
+                    }
+                }
+            }
+            if (pending > 0) {
+                bulk.execute();
+                converted += pending;
+            }
+            complete = true;
+            if (converted > 0) {
+                cache.getErrorService().debug("Converted uniqueId of " + converted + " profiles to binary in cache " + cache.getName());
+            }
+        } catch (Exception ex) {
+            cache.getErrorService().capture(ex, "Error converting profile UUIDs to binary in cache " + cache.getName());
+        }
+    }
+
+}
@@ -0,0 +1,168 @@
+/*
+ * Copyright (c) 2020 Jonah Seguin.  All rights reserved.  You may not modify, decompile, distribute or use any code/text contained in this document(plugin) without explicit signed permission from Jonah Seguin.
+ * www.jonahseguin.com
+ */
+
+package com.jonahseguin.payload.mode.profile.store;
+
+import com.google.common.base.Preconditions;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.jonahseguin.payload.base.Service;
+import com.jonahseguin.payload.mode.profile.PayloadProfile;
+import com.jonahseguin.payload.mode.profile.PayloadProfileCache;
+import dev.morphia.query.Query;
+
+import javax.annotation.Nonnull;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Coalesces the MongoDB lookups of concurrent logins into a single $in query per cache.
+ * Lookups are collected for {@link com.jonahseguin.payload.mode.profile.settings.ProfileCacheSettings#getLoginBatchWindowMillis()}
+ * or until {@link com.jonahseguin.payload.mode.profile.settings.ProfileCacheSettings#getLoginBatchMaxSize()} UUIDs are
+ * pending, whichever comes first, and the results are fanned back out to the waiting logins.
+ * A lookup made while no other lookup is pending or being queried is queried straight away, so logins only wait for the
+ * window when they are actually concurrent.
+ */
+public class ProfileBatchLoader<X extends PayloadProfile> implements Service {
+
+    private final PayloadProfileCache<X> cache;
+    private final Object lock = new Object();
+    private Map<UUID, CompletableFuture<Optional<X>>> batch = new HashMap<>();
+    private ScheduledFuture<?> scheduledFlush = null; // flushes the current batch at the end of its window
+    private int querying = 0; // batches (or lone lookups) being queried
+    private ScheduledExecutorService timer = null;
+    private volatile boolean running = false;
+
+    public ProfileBatchLoader(@Nonnull PayloadProfileCache<X> cache) {
+        Preconditions.checkNotNull(cache);
+        this.cache = cache;
+    }
+
+    /**
+     * Look up a profile by UUID: in the next batch if other lookups are pending or being queried, otherwise straight away
+     * @param uuid UUID of the profile
+     * @return Future completed with the profile (or empty if it doesn't exist) once the batch has been queried,
+     * or completed exceptionally if the batch query failed
+     */
+    public CompletableFuture<Optional<X>> load(@Nonnull UUID uuid) {
+        Preconditions.checkNotNull(uuid);
+        Preconditions.checkState(running, "Profile Batch Loader is not running for cache: " + cache.getName());
+        Map<UUID, CompletableFuture<Optional<X>>> full = null;
+        CompletableFuture<Optional<X>> future;
+        synchronized (lock) {
+            future = batch.get(uuid);
+            if (future != null) {
+                return future;
+            }
+            future = new CompletableFuture<>();
+            if (batch.isEmpty() && querying == 0) {
+                // Nothing to share a query with
+                querying++;
+                full = Collections.singletonMap(uuid, future);
+            } else {
+                batch.put(uuid, future);
+                if (batch.size() >= cache.getSettings().getLoginBatchMaxSize()) {
+                    full = take();
+                } else if (batch.size() == 1) {
+                    final Map<UUID, CompletableFuture<Optional<X>>> window = batch;
+                    scheduledFlush = timer.schedule(() -> flush(window), cache.getSettings().getLoginBatchWindowMillis(), TimeUnit.MILLISECONDS);
+                }
+            }
+        }
+        if (full != null) {
+            if (full.size() == 1) {
+                query(full); // we're already off the main thread
+            } else {
+                final Map<UUID, CompletableFuture<Optional<X>>> toQuery = full;
+                cache.runAsync(() -> query(toQuery));
+            }
+        }
+        return future;
+    }
+
+    /**
+     * Take the current batch to query it, cancelling its scheduled flush
+     * Must hold the lock
+     */
+    private Map<UUID, CompletableFuture<Optional<X>>> take() {
+        Map<UUID, CompletableFuture<Optional<X>>> taken = batch;
+        batch = new HashMap<>();
+        if (scheduledFlush != null) {
+            scheduledFlush.cancel(false);
+            scheduledFlush = null;
+        }
+        querying++;
+        return taken;
+    }
+
+    private void flush(@Nonnull Map<UUID, CompletableFuture<Optional<X>>> window) {
+        Map<UUID, CompletableFuture<Optional<X>>> toQuery;
+        synchronized (lock) {
+            if (batch != window || batch.isEmpty()) {
+                return; // this window's batch was already taken
+            }
+            toQuery = take();
+        }
+        cache.runAsync(() -> query(toQuery));
+    }
+
+    private void query(@Nonnull Map<UUID, CompletableFuture<Optional<X>>> toQuery) {
+        try {
+            Query<X> q = cache.getMongoStore().createQuery();
+            cache.getMongoStore().matchUniqueIds(q, toQuery.keySet());
+            Map<UUID, X> found = new HashMap<>();
+            for (X x : q.find().toList()) {
+                found.putIfAbsent(x.getUniqueId(), x);
+            }
+            cache.getErrorService().debug("Batch loaded " + found.size() + "/" + toQuery.size() + " profiles from MongoDB");
+            toQuery.forEach((uuid, future) -> {
+                X x = found.get(uuid);
+                if (x != null) {
+                    x.setLoadingSource(cache.getMongoStore().layerName());
+                }
+                future.complete(Optional.ofNullable(x));
+            });
+        } catch (Exception ex) {
+            cache.getErrorService().capture(ex, "Error batch loading " + toQuery.size() + " profiles from MongoDB Layer");
+            toQuery.values().forEach(future -> future.completeExceptionally(ex));
+        } finally {
+            synchronized (lock) {
+                querying--;
+            }
+        }
+    }
+
+    @Override
+    public boolean start() {
+        timer = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder().setNameFormat("Payload Batch Loader - " + cache.getName()).setDaemon(true).build());
+        running = true;
+        return true;
+    }
+
+    @Override
+    public boolean shutdown() {
+        running = false;
+        Map<UUID, CompletableFuture<Optional<X>>> remaining;
+        synchronized (lock) {
+            remaining = batch.isEmpty() ? Collections.emptyMap() : take();
+        }
+        if (!remaining.isEmpty()) {
+            query(remaining);
+        }
+        if (timer != null) {
+            timer.shutdown();
+            timer = null;
+        }
+        return true;
+    }
+
+    @Override
+    public boolean isRunning() {
+        return running;
+    }
+}
@@ -0,0 +1,127 @@
+/*
+ * Copyright (c) 2020 Jonah Seguin.  All rights reserved.  You may not modify, decompile, distribute or use any code/text contained in this document(plugin) without explicit signed permission from Jonah Seguin.
+ * www.jonahseguin.com
+ */
+
+package com.jonahseguin.payload.mode.profile.store;
+
+import com.google.common.base.Preconditions;
+import com.jonahseguin.payload.mode.profile.PayloadProfile;
+import com.jonahseguin.payload.mode.profile.PayloadProfileCache;
+import com.jonahseguin.payload.mode.profile.network.NetworkProfile;
+
+import javax.annotation.Nonnull;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+
+/**
+ * Profiles of players who recently logged out, kept for {@link com.jonahseguin.payload.mode.profile.settings.ProfileCacheSettings#getReconnectGraceSeconds()}
+ * so that a quick reconnect can reuse them instead of reloading from the database (and handshaking in network node mode).
+ * Entries are kept in departure order, so expired entries are always at the head.
+ */
+public class ProfileDepartedStore<X extends PayloadProfile> {
+
+    private final PayloadProfileCache<X> cache;
+    private final Map<UUID, Departed<X>> departed = new LinkedHashMap<>();
+
+    public ProfileDepartedStore(@Nonnull PayloadProfileCache<X> cache) {
+        Preconditions.checkNotNull(cache);
+        this.cache = cache;
+    }
+
+    /**
+     * Hold on to a profile after its player logged out (and it was saved / unloaded)
+     * @param payload Profile
+     */
+    public void depart(@Nonnull X payload) {
+        Preconditions.checkNotNull(payload);
+        if (cache.getSettings().getReconnectGraceSeconds() <= 0) {
+            return;
+        }
+        synchronized (departed) {
+            prune();
+            departed.remove(payload.getUniqueId()); // re-insert at the tail
+            departed.put(payload.getUniqueId(), new Departed<>(payload, System.currentTimeMillis()));
+        }
+    }
+
+    /**
+     * Take back a departed profile for a rejoining player, if no other server could have changed it since they left
+     * @param uuid UUID of the player
+     * @param networkProfile Their current NetworkProfile
+     * @return The departed profile, if still within the grace period and still current
+     */
+    public Optional<X> reclaim(@Nonnull UUID uuid, @Nonnull NetworkProfile networkProfile) {
+        Preconditions.checkNotNull(uuid);
+        Preconditions.checkNotNull(networkProfile);
+        Departed<X> entry;
+        synchronized (departed) {
+            prune();
+            entry = departed.remove(uuid);
+        }
+        if (entry == null) {
+            return Optional.empty();
+        }
+        String thisServer = cache.getServerService().getThisServer().getName();
+        boolean sameServer = networkProfile.getLastSeenServer() == null || networkProfile.getLastSeenServer().equalsIgnoreCase(thisServer);
+        if (sameServer && !networkProfile.isOnlineOtherServer() && networkProfile.getLastCached() <= entry.departedAt && networkProfile.getLastSaved() <= entry.departedAt) {
+            entry.payload.setLoadingSource("Reconnect");
+            return Optional.of(entry.payload);
+        }
+        cache.getErrorService().debug("Not reusing departed profile for " + uuid.toString() + ", it was loaded or saved elsewhere since they left");
+        return Optional.empty();
+    }
+
+    public boolean has(@Nonnull UUID uuid) {
+        Preconditions.checkNotNull(uuid);
+        synchronized (departed) {
+            prune();
+            return departed.containsKey(uuid);
+        }
+    }
+
+    public void remove(@Nonnull UUID uuid) {
+        Preconditions.checkNotNull(uuid);
+        synchronized (departed) {
+            departed.remove(uuid);
+        }
+    }
+
+    public int size() {
+        synchronized (departed) {
+            return departed.size();
+        }
+    }
+
+    public void clear() {
+        synchronized (departed) {
+            departed.clear();
+        }
+    }
+
+    private void prune() {
+        long cutoff = System.currentTimeMillis() - (cache.getSettings().getReconnectGraceSeconds() * 1000L);
+        Iterator<Departed<X>> it = departed.values().iterator();
+        while (it.hasNext()) {
+            if (it.next().departedAt < cutoff) {
+                it.remove();
+            } else {
+                break;
+            }
+        }
+    }
+
+    private static class Departed<X> {
+        private final X payload;
+        private final long departedAt;
+
+        private Departed(X payload, long departedAt) {
+            this.payload = payload;
+            this.departedAt = departedAt;
+        }
+    }
+
+}
@@ -6,8 +6,13 @@
 package com.jonahseguin.payload.mode.profile.store;
 
 import com.google.common.base.Preconditions;
+import com.jonahseguin.payload.PayloadMode;
+import com.jonahseguin.payload.base.store.ColdStore;
+import com.jonahseguin.payload.base.store.LocalIndex;
+import com.jonahseguin.payload.base.uuid.ConcurrentUUIDMap;
 import com.jonahseguin.payload.mode.profile.PayloadProfile;
 import com.jonahseguin.payload.mode.profile.PayloadProfileCache;
+import com.jonahseguin.payload.mode.profile.network.NetworkProfile;
 import lombok.Getter;
 import org.bson.types.ObjectId;
 
@@ -15,37 +20,172 @@ import javax.annotation.Nonnull;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListMap;
 
+/**
+ * Local (in-memory) profile store.
+ * Profiles expire {@link com.jonahseguin.payload.mode.profile.settings.ProfileCacheSettings#getLocalExpiryTimeSeconds()}
+ * after their last interaction.  Expiry is tracked in one-second buckets of deadlines, so {@link #cleanup()} only visits
+ * profiles whose deadline has passed; a profile that was interacted with since it was scheduled is simply re-scheduled.
+ * Profiles that expire without unsaved changes are kept serialized in the {@link ColdStore} (when enabled) and restored from it on a miss,
+ * unless (in network node mode) another server has loaded or saved them since.
+ * Profiles are indexed by ObjectId and (case-insensitive) username, plus any {@link LocalIndex} registered via {@link #registerIndex(LocalIndex)}.
+ */
 @Getter
 public class ProfileStoreLocal<X extends PayloadProfile> extends ProfileCacheStore<X> {
 
-    private final ConcurrentMap<UUID, X> localCache = new ConcurrentHashMap<>();
+    private static final long BUCKET_MILLIS = 1000L;
+    private static final String LAYER_NAME = "Profile Local";
+
+    private final ConcurrentMap<UUID, X> localCache = new ConcurrentUUIDMap<>();
+    private final ConcurrentSkipListMap<Long, Set<UUID>> expiryQueue = new ConcurrentSkipListMap<>();
+    private final ConcurrentMap<UUID, Long> expiryBuckets = new ConcurrentHashMap<>(); // the bucket each profile is currently scheduled in
+    private final LocalIndex<UUID, X, ObjectId> objectIdIndex = LocalIndex.unique("objectId", PayloadProfile::getObjectId);
+    private final LocalIndex<UUID, X, String> usernameIndex = LocalIndex.unique("username", x -> x.getUsername() != null ? x.getUsername().toLowerCase(Locale.ROOT) : null);
+    private final Map<String, LocalIndex<UUID, X, ?>> indexes = new ConcurrentHashMap<>();
+    private final ColdStore<UUID, X> coldStore;
     private boolean running = false;
 
     public ProfileStoreLocal(PayloadProfileCache<X> cache) {
         super(cache);
+        this.coldStore = new ColdStore<>(cache);
+        indexes.put(objectIdIndex.getName(), objectIdIndex);
+        indexes.put(usernameIndex.getName(), usernameIndex);
     }
 
     @Override
     public Optional<X> get(@Nonnull UUID uuid) {
+        X x = getIfPresent(uuid);
+        return x != null ? x.asOptional() : Optional.empty();
+    }
+
+    /**
+     * The local cache hit path: no allocation when the profile is cached
+     * @param uuid UUID
+     * @return The cached profile, or null
+     */
+    public X getIfPresent(@Nonnull UUID uuid) {
         Preconditions.checkNotNull(uuid);
         X x = localCache.get(uuid);
-        if (x != null) {
-            x.interact();
-            x.setLoadingSource(layerName());
+        if (x == null) {
+            return promote(uuid);
+        }
+        x.interact();
+        if (x.getLoadingSource() != LAYER_NAME) {
+            x.setLoadingSource(LAYER_NAME);
+        }
+        return x;
+    }
+
+    private X promote(@Nonnull UUID uuid) {
+        if (cache.getMode() == PayloadMode.NETWORK_NODE && !isColdCopyCurrent(uuid)) {
+            coldStore.remove(uuid);
+            return null;
+        }
+        X x = coldStore.take(uuid);
+        if (x == null) {
+            return null;
+        }
+        X existing = localCache.putIfAbsent(uuid, x);
+        if (existing != null) {
+            // Cached again while we were restoring it
+            existing.interact();
+            return existing;
+        }
+        x.interact();
+        x.setLoadingSource("Profile Cold");
+        scheduleExpiry(uuid, x.getLastInteractionTimestamp() + expiryMillis());
+        indexes.values().forEach(index -> index.index(uuid, x));
+        return x;
+    }
+
+    /**
+     * Other servers don't tell us when they load or save an offline profile, so check its NetworkProfile (as for departed
+     * profiles) before trusting a cold copy: it's stale if the profile was loaded or saved anywhere since it was put there
+     */
+    private boolean isColdCopyCurrent(@Nonnull UUID uuid) {
+        long storedAt = coldStore.getStoredAt(uuid);
+        if (storedAt == 0L) {
+            return true; // nothing to restore
+        }
+        NetworkProfile networkProfile = cache.getNetworked(uuid).orElse(null);
+        if (networkProfile == null) {
+            return true;
+        }
+        if (networkProfile.isOnlineOtherServer() || networkProfile.getLastCached() > storedAt || networkProfile.getLastSaved() > storedAt) {
+            cache.getErrorService().debug("Dropped stale cold copy of profile " + uuid.toString() + ", it was loaded or saved elsewhere since");
+            return false;
         }
-        return Optional.ofNullable(x);
+        return true;
     }
 
     public X getByObjectID(ObjectId id) {
-        return localCache.values().stream().filter(x -> x.getObjectId().equals(id)).findFirst().orElse(null);
+        return objectIdIndex.getKey(id).map(localCache::get).orElse(null);
+    }
+
+    /**
+     * @param username Username (case-insensitive)
+     * @return The cached profile with this username
+     */
+    public Optional<X> getByUsername(@Nonnull String username) {
+        Preconditions.checkNotNull(username);
+        return usernameIndex.getKey(username.toLowerCase(Locale.ROOT)).flatMap(this::get);
+    }
+
+    /**
+     * Register a secondary index, which is maintained as profiles are cached/uncached.  Existing profiles are indexed immediately.
+     * @param index The index
+     * @return The index
+     */
+    public <V> LocalIndex<UUID, X, V> registerIndex(@Nonnull LocalIndex<UUID, X, V> index) {
+        Preconditions.checkNotNull(index);
+        Preconditions.checkState(!indexes.containsKey(index.getName()), "An index named " + index.getName() + " is already registered");
+        indexes.put(index.getName(), index);
+        localCache.forEach(index::index);
+        return index;
+    }
+
+    @SuppressWarnings("unchecked")
+    public <V> Optional<LocalIndex<UUID, X, V>> getIndex(@Nonnull String name) {
+        Preconditions.checkNotNull(name);
+        return Optional.ofNullable((LocalIndex<UUID, X, V>) indexes.get(name));
+    }
+
+    /**
+     * @param name Index name
+     * @param value Indexed value
+     * @return All cached profiles indexed under the value
+     */
+    @Nonnull
+    public <V> Set<X> getByIndex(@Nonnull String name, @Nonnull V value) {
+        LocalIndex<UUID, X, V> index = this.<V>getIndex(name).orElseThrow(() -> new IllegalArgumentException("No index named " + name));
+        Set<X> result = new HashSet<>();
+        for (UUID uuid : index.getKeys(value)) {
+            X x = localCache.get(uuid);
+            if (x != null) {
+                result.add(x);
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public void reindex(@Nonnull X payload) {
+        Preconditions.checkNotNull(payload);
+        if (localCache.get(payload.getUniqueId()) == payload) {
+            indexes.values().forEach(index -> index.index(payload.getUniqueId(), payload));
+        }
     }
 
     @Override
     public boolean save(@Nonnull X payload) {
         Preconditions.checkNotNull(payload);
         payload.interact();
-        localCache.put(payload.getUniqueId(), payload);
+        coldStore.remove(payload.getUniqueId());
+        if (localCache.put(payload.getUniqueId(), payload) == null || !expiryBuckets.containsKey(payload.getUniqueId())) {
+            scheduleExpiry(payload.getUniqueId(), payload.getLastInteractionTimestamp() + expiryMillis());
+        }
+        indexes.values().forEach(index -> index.index(payload.getUniqueId(), payload));
         return true;
     }
 
@@ -59,6 +199,19 @@ public class ProfileStoreLocal<X extends PayloadProfile> extends ProfileCacheSto
     public void remove(@Nonnull UUID key) {
         Preconditions.checkNotNull(key);
         localCache.remove(key);
+        coldStore.remove(key);
+        expiryBuckets.remove(key); // its queue entry is now stale and skipped
+        unindex(key);
+    }
+
+    @Override
+    public void invalidate(@Nonnull UUID key) {
+        Preconditions.checkNotNull(key);
+        coldStore.remove(key);
+    }
+
+    private void unindex(@Nonnull UUID key) {
+        indexes.values().forEach(index -> index.unindex(key));
     }
 
     @Override
@@ -72,31 +225,94 @@ public class ProfileStoreLocal<X extends PayloadProfile> extends ProfileCacheSto
     @Override
     public void remove(@Nonnull X payload) {
         Preconditions.checkNotNull(payload);
-        localCache.remove(payload.getUniqueId());
+        remove(payload.getUniqueId());
     }
 
     @Override
     public int cleanup() {
-        long expiryTimeSeconds = getCache().getSettings().getLocalExpiryTimeSeconds();
-        Set<UUID> purge = new HashSet<>();
-        for (Map.Entry<UUID, X> entry : localCache.entrySet()) {
-            if (!entry.getValue().isOnline() && entry.getValue().getLastInteractionTimestamp() < (System.currentTimeMillis() - (expiryTimeSeconds * 1000))) {
-                // Expired
-                purge.add(entry.getKey());
+        final long now = System.currentTimeMillis();
+        final long nowBucket = now / BUCKET_MILLIS;
+        int evicted = 0;
+        Map.Entry<Long, Set<UUID>> bucket;
+        while ((bucket = expiryQueue.firstEntry()) != null && bucket.getKey() <= nowBucket) {
+            expiryQueue.remove(bucket.getKey());
+            for (UUID uuid : bucket.getValue()) {
+                Long scheduled = expiryBuckets.get(uuid);
+                if (scheduled == null || scheduled.longValue() != bucket.getKey()) {
+                    continue; // removed, or re-scheduled into another bucket
+                }
+                X x = localCache.get(uuid);
+                if (x == null) {
+                    expiryBuckets.remove(uuid, scheduled);
+                    continue;
+                }
+                long deadline = x.getLastInteractionTimestamp() + expiryMillis();
+                if (deadline > now) {
+                    // Interacted with since it was scheduled
+                    scheduleExpiry(uuid, deadline);
+                } else if (x.isOnline() || x.isDirty()) {
+                    // Never drop online players or unsaved changes; check again later
+                    scheduleExpiry(uuid, now + expiryMillis());
+                } else if (localCache.remove(uuid, x)) {
+                    expiryBuckets.remove(uuid, scheduled);
+                    unindex(uuid);
+                    coldStore.put(uuid, x);
+                    evicted++;
+                }
             }
         }
+        return evicted;
+    }
 
-        for (UUID key : purge) {
-            cache.uncache(key);
+    /**
+     * Evict offline profiles without unsaved changes, least recently used first
+     * @param max Maximum number of profiles to evict
+     * @return Number of profiles evicted
+     */
+    public int evictCold(int max) {
+        if (max <= 0) {
+            return 0;
+        }
+        List<X> candidates = new ArrayList<>();
+        for (X x : localCache.values()) {
+            if (!x.isOnline() && !x.isDirty()) {
+                candidates.add(x);
+            }
         }
+        candidates.sort(Comparator.comparingLong(PayloadProfile::getLastInteractionTimestamp));
+        int evicted = 0;
+        for (X x : candidates) {
+            if (evicted >= max) {
+                break;
+            }
+            if (!x.isOnline() && !x.isDirty() && localCache.remove(x.getUniqueId(), x)) {
+                expiryBuckets.remove(x.getUniqueId());
+                unindex(x.getUniqueId());
+                evicted++;
+            }
+        }
+        return evicted;
+    }
+
+    private void scheduleExpiry(@Nonnull UUID uuid, long deadline) {
+        // Always schedule into a future bucket, so we never add to a bucket that cleanup() is draining
+        long bucket = Math.max(deadline / BUCKET_MILLIS, (System.currentTimeMillis() / BUCKET_MILLIS)) + 1;
+        expiryBuckets.put(uuid, bucket);
+        expiryQueue.computeIfAbsent(bucket, b -> ConcurrentHashMap.newKeySet()).add(uuid);
+    }
 
-        return purge.size();
+    private long expiryMillis() {
+        return cache.getSettings().getLocalExpiryTimeSeconds() * 1000L;
     }
 
     @Override
     public long clear() {
         long i = localCache.size();
         localCache.clear();
+        expiryQueue.clear();
+        expiryBuckets.clear();
+        indexes.values().forEach(LocalIndex::clear);
+        coldStore.clear();
         return i;
     }
 
@@ -133,7 +349,7 @@ public class ProfileStoreLocal<X extends PayloadProfile> extends ProfileCacheSto
     @Nonnull
     @Override
     public String layerName() {
-        return "Profile Local";
+        return LAYER_NAME;
     }
 
     @Override
@@ -6,34 +6,44 @@
 package com.jonahseguin.payload.mode.profile.store;
 
 import com.google.common.base.Preconditions;
+import com.jonahseguin.payload.base.store.BulkSaver;
+import com.jonahseguin.payload.base.store.LowercaseBackfill;
+import com.jonahseguin.payload.base.store.PartialUpdater;
 import com.jonahseguin.payload.base.type.PayloadQueryModifier;
+import com.jonahseguin.payload.base.uuid.BinaryUUID;
 import com.jonahseguin.payload.mode.profile.PayloadProfile;
 import com.jonahseguin.payload.mode.profile.PayloadProfileCache;
 import com.mongodb.MongoException;
+import dev.morphia.query.CountOptions;
 import dev.morphia.query.Query;
 
 import javax.annotation.Nonnull;
 import java.util.*;
-import java.util.stream.Stream;
 
 public class ProfileStoreMongo<X extends PayloadProfile> extends ProfileCacheStore<X> {
 
     private final Set<PayloadQueryModifier<X>> queryModifiers = new HashSet<>();
+    private final PartialUpdater partialUpdater;
+    private final BulkSaver bulkSaver;
     private boolean running = false;
+    private LowercaseBackfill backfill = null;
+    private BinaryUUIDMigration<X> binaryMigration = null;
 
     public ProfileStoreMongo(PayloadProfileCache<X> cache) {
         super(cache);
+        this.partialUpdater = new PartialUpdater(cache);
+        this.bulkSaver = new BulkSaver(cache, partialUpdater);
     }
 
     @Override
     public Optional<X> get(@Nonnull UUID key) {
         Preconditions.checkNotNull(key);
         try {
-            Query<X> q = getQuery(key);
-            Stream<X> stream = q.find().toList().stream();
-            Optional<X> o = stream.findFirst();
-            o.ifPresent(x -> x.setLoadingSource(layerName()));
-            return o;
+            X x = getQuery(key).first();
+            if (x != null) {
+                x.setLoadingSource(layerName());
+            }
+            return Optional.ofNullable(x);
         } catch (MongoException ex) {
             getCache().getErrorService().capture(ex, "MongoDB error getting Profile from MongoDB Layer: " + key.toString());
             return Optional.empty();
@@ -47,7 +57,7 @@ public class ProfileStoreMongo<X extends PayloadProfile> extends ProfileCacheSto
     public boolean has(@Nonnull UUID uuid) {
         Preconditions.checkNotNull(uuid);
         try {
-            return getQuery(uuid).find().toList().stream().findAny().isPresent();
+            return exists(getQuery(uuid));
         } catch (MongoException ex) {
             getCache().getErrorService().capture(ex, "MongoDB error check if Profile exists in MongoDB Layer: " + uuid.toString());
             return false;
@@ -73,15 +83,12 @@ public class ProfileStoreMongo<X extends PayloadProfile> extends ProfileCacheSto
     public Optional<X> getByUsername(@Nonnull String username) {
         Preconditions.checkNotNull(username);
         try {
-            Query<X> q = getQueryForUsername(username);
-            Stream<X> stream = q.find().toList().stream();
-            Optional<X> xp = stream.findFirst();
-            X x = xp.orElse(null);
+            X x = getQueryForUsername(username).first();
             if (x != null) {
                 x.interact();
                 x.setLoadingSource(layerName());
             }
-            return xp;
+            return Optional.ofNullable(x);
         } catch (MongoException ex) {
             getCache().getErrorService().capture(ex, "MongoDB error getting Profile from MongoDB Layer: " + username);
             return Optional.empty();
@@ -96,6 +103,9 @@ public class ProfileStoreMongo<X extends PayloadProfile> extends ProfileCacheSto
         Preconditions.checkNotNull(payload);
         payload.interact();
         try {
+            if (cache.getSettings().isPartialUpdates() && partialUpdater.save(payload)) {
+                return true;
+            }
             cache.getDatabase().getDatastore().save(payload);
             return true;
         } catch (MongoException ex) {
@@ -107,6 +117,24 @@ public class ProfileStoreMongo<X extends PayloadProfile> extends ProfileCacheSto
         }
     }
 
+    /**
+     * Save many payloads in unordered bulk writes
+     * @param payloads Payloads to save
+     * @return The outcome, including the payloads that failed to save
+     */
+    @Nonnull
+    public BulkSaver.Result saveAll(@Nonnull Collection<X> payloads) {
+        Preconditions.checkNotNull(payloads);
+        for (X payload : payloads) {
+            payload.interact();
+        }
+        return bulkSaver.save(payloads);
+    }
+
+    public BulkSaver.Result getLastBulkSave() {
+        return bulkSaver.getLastResult();
+    }
+
     @Override
     public boolean has(@Nonnull X payload) {
         Preconditions.checkNotNull(payload);
@@ -149,8 +177,26 @@ public class ProfileStoreMongo<X extends PayloadProfile> extends ProfileCacheSto
             cache.getErrorService().capture("Error initializing MongoDB Profile Layer: Payload Database is not connected");
             success = false;
         }
+        backfill = new LowercaseBackfill(cache, cache.getPayloadClass())
+                .field("usernameLower", "username")
+                .field("payloadIdLower", "payloadId");
+        if (success) {
+            cache.runAsync(backfill);
+        }
+        if (cache.getSettings().isBinaryUuids()) {
+            binaryMigration = new BinaryUUIDMigration<>(cache);
+            if (success) {
+                cache.runAsync(binaryMigration);
+            }
+        }
         if (cache.getSettings().isServerSpecific()) {
-            addCriteriaModifier(query -> query.field("payloadId").equalIgnoreCase(cache.getApi().getPayloadID()));
+            addCriteriaModifier(query -> {
+                if (isBackfilled()) {
+                    query.field("payloadIdLower").equal(cache.getApi().getPayloadID().toLowerCase(Locale.ROOT));
+                } else {
+                    query.field("payloadId").equalIgnoreCase(cache.getApi().getPayloadID());
+                }
+            });
         }
         running = true;
         return success;
@@ -194,18 +240,66 @@ public class ProfileStoreMongo<X extends PayloadProfile> extends ProfileCacheSto
         return q;
     }
 
+    /**
+     * @return true if the query matches any document; counted on the server (stopping at the first match),
+     * so nothing is transferred or mapped
+     */
+    public boolean exists(@Nonnull Query<X> q) {
+        return q.count(new CountOptions().limit(1)) > 0;
+    }
+
     public Query<X> getQuery(UUID uniqueId) {
         Query<X> q = createQuery();
-        q.criteria("uniqueId").equalIgnoreCase(uniqueId.toString());
+        matchUniqueIds(q, Collections.singleton(uniqueId));
         return q;
     }
 
+    /**
+     * Match profiles by UUID, in whichever form their uniqueId is stored
+     * (binary with {@link com.jonahseguin.payload.mode.profile.settings.ProfileCacheSettings#isBinaryUuids()},
+     * and also as a string until existing profiles have been converted)
+     * @param q Query
+     * @param uniqueIds UUIDs to match
+     */
+    public void matchUniqueIds(@Nonnull Query<X> q, @Nonnull Collection<UUID> uniqueIds) {
+        boolean binary = cache.getSettings().isBinaryUuids();
+        boolean strings = !binary || binaryMigration == null || !binaryMigration.isComplete();
+        List<Object> values = new ArrayList<>(uniqueIds.size() * (binary && strings ? 2 : 1));
+        for (UUID uniqueId : uniqueIds) {
+            if (binary) {
+                values.add(BinaryUUID.toBinary(uniqueId));
+            }
+            if (strings) {
+                values.add(uniqueId.toString());
+            }
+        }
+        if (binary) {
+            q.disableValidation(); // the mapped field is a String
+        }
+        if (values.size() == 1) {
+            q.criteria("uniqueId").equal(values.get(0));
+        } else {
+            q.criteria("uniqueId").in(values);
+        }
+    }
+
     public Query<X> getQueryForUsername(String username) {
         Query<X> q = createQuery();
-        q.criteria("username").equalIgnoreCase(username);
+        if (isBackfilled()) {
+            q.criteria("usernameLower").equal(username.toLowerCase(Locale.ROOT));
+        } else {
+            q.criteria("username").equalIgnoreCase(username);
+        }
         return q;
     }
 
+    /**
+     * @return true once every stored profile has its lowercase shadow fields, so they can be queried with exact matches
+     */
+    public boolean isBackfilled() {
+        return backfill != null && backfill.isComplete();
+    }
+
     @Override
     public boolean isDatabase() {
         return true;